@@ -66,6 +66,7 @@ import org.elasticsearch.common.settings.Setting.Property;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
@@ -85,6 +86,8 @@ import org.elasticsearch.script.ScriptService;
 import org.elasticsearch.search.internal.ScrollContext;
 import org.elasticsearch.search.internal.SearchContext;
 import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.RemoteClusterService;
 import org.elasticsearch.transport.Transport;
@@ -99,6 +102,8 @@ import org.elasticsearch.transport.TransportResponseHandler;
 import org.elasticsearch.transport.TransportService;
 import org.elasticsearch.watcher.ResourceWatcherService;
 
+import com.floragunn.searchguard.action.authzlookup.AuthzLookupAction;
+import com.floragunn.searchguard.action.authzlookup.TransportAuthzLookupAction;
 import com.floragunn.searchguard.action.configupdate.ConfigUpdateAction;
 import com.floragunn.searchguard.action.configupdate.TransportConfigUpdateAction;
 import com.floragunn.searchguard.action.licenseinfo.LicenseInfoAction;
@@ -127,6 +132,7 @@ import com.floragunn.searchguard.rest.KibanaInfoAction;
 import com.floragunn.searchguard.rest.SearchGuardHealthAction;
 import com.floragunn.searchguard.rest.SearchGuardInfoAction;
 import com.floragunn.searchguard.rest.SearchGuardLicenseAction;
+import com.floragunn.searchguard.rest.SearchGuardStatsAction;
 import com.floragunn.searchguard.ssl.SearchGuardSSLPlugin;
 import com.floragunn.searchguard.ssl.SslExceptionHandler;
 import com.floragunn.searchguard.ssl.http.netty.ValidatingDispatcher;
@@ -390,6 +396,8 @@ public final class SearchGuardPlugin extends SearchGuardSSLPlugin {
             handlers.add(new KibanaInfoAction(settings, restController, Objects.requireNonNull(evaluator), Objects.requireNonNull(threadPool)));
             handlers.add(new SearchGuardLicenseAction(settings, restController));
             handlers.add(new SearchGuardHealthAction(settings, restController, Objects.requireNonNull(backendRegistry)));
+            handlers.add(new SearchGuardStatsAction(settings, restController, Objects.requireNonNull(backendRegistry), 
+                    Objects.requireNonNull(evaluator), Objects.requireNonNull(adminDns), Objects.requireNonNull(threadPool)));
 
             Collection<RestHandler> apiHandler = ReflectionHelper
                     .instantiateMngtRestApiHandler(settings, configPath, restController, localClient, adminDns, cr, cs, Objects.requireNonNull(principalExtractor),  evaluator, threadPool, Objects.requireNonNull(auditLog));
@@ -422,6 +430,7 @@ public final class SearchGuardPlugin extends SearchGuardSSLPlugin {
             actions.add(new ActionHandler<>(ConfigUpdateAction.INSTANCE, TransportConfigUpdateAction.class));
             actions.add(new ActionHandler<>(LicenseInfoAction.INSTANCE, TransportLicenseInfoAction.class));
             actions.add(new ActionHandler<>(WhoAmIAction.INSTANCE, TransportWhoAmIAction.class));
+            actions.add(new ActionHandler<>(AuthzLookupAction.INSTANCE, TransportAuthzLookupAction.class));
         }
         return actions;
     }
@@ -551,6 +560,33 @@ public final class SearchGuardPlugin extends SearchGuardSSLPlugin {
         return interceptors;
     }
     
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        final List<ExecutorBuilder<?>> builders = new ArrayList<ExecutorBuilder<?>>(super.getExecutorBuilders(settings));
+        
+        if (!client && !tribeNodeClient && !disabled) {
+            final int processors = EsExecutors.numberOfProcessors(settings);
+            
+            if(settings.getAsBoolean(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_ENABLED, false)) {
+                builders.add(new FixedExecutorBuilder(settings, ConfigConstants.SG_AUTHZ_THREAD_POOL_NAME, Math.max(1, processors / 2), 1000, 
+                        ConfigConstants.SEARCHGUARD_AUTHZ_THREAD_POOL_PREFIX));
+            }
+            
+            //bcrypt is cpu bound, leave the remaining cores for the search and write thread pools
+            if(settings.getAsBoolean(ConfigConstants.SEARCHGUARD_BCRYPT_OFFLOAD_ENABLED, false)) {
+                builders.add(new FixedExecutorBuilder(settings, ConfigConstants.SG_BCRYPT_THREAD_POOL_NAME, Math.max(1, processors / 2), 100, 
+                        ConfigConstants.SEARCHGUARD_BCRYPT_THREAD_POOL_PREFIX));
+            }
+            
+            //backend calls of auth domains with a timeout_ms, the authenticating thread waits at most timeout_ms for them
+            //always registered because timeout_ms is part of the dynamic sg_config, the threads are only started when used
+            builders.add(new FixedExecutorBuilder(settings, ConfigConstants.SG_AUTH_BACKEND_THREAD_POOL_NAME, Math.max(4, processors * 2), 100, 
+                    ConfigConstants.SEARCHGUARD_AUTH_BACKEND_THREAD_POOL_PREFIX));
+        }
+        
+        return builders;
+    }
+    
     @Override
     public Map<String, Supplier<Transport>> getTransports(Settings settings, ThreadPool threadPool, BigArrays bigArrays,
             CircuitBreakerService circuitBreakerService, NamedWriteableRegistry namedWriteableRegistry, NetworkService networkService) {        
@@ -631,14 +667,15 @@ public final class SearchGuardPlugin extends SearchGuardSSLPlugin {
         adminDns = new AdminDNs(settings);      
         //final PrincipalExtractor pe = new DefaultPrincipalExtractor();        
         cr = (IndexBaseConfigurationRepository) IndexBaseConfigurationRepository.create(settings, this.configPath, threadPool, localClient, clusterService);        
-        final InternalAuthenticationBackend iab = new InternalAuthenticationBackend(cr);     
+        final InternalAuthenticationBackend iab = new InternalAuthenticationBackend(settings, cr, threadPool, localClient);     
         final XFFResolver xffResolver = new XFFResolver(threadPool);
         cr.subscribeOnChange(ConfigConstants.CONFIGNAME_CONFIG, xffResolver);   
-        backendRegistry = new BackendRegistry(settings, configPath, adminDns, xffResolver, iab, auditLog, threadPool);
+        backendRegistry = new BackendRegistry(settings, configPath, adminDns, xffResolver, iab, cr, auditLog, threadPool, 
+                nodeEnvironment.hasNodeFile() ? nodeEnvironment.nodeDataPaths()[0] : null, localClient);
         cr.subscribeOnChange(ConfigConstants.CONFIGNAME_CONFIG, backendRegistry);
         final ActionGroupHolder ah = new ActionGroupHolder(cr);      
         evaluator = new PrivilegesEvaluator(clusterService, threadPool, cr, ah, resolver, auditLog, settings, privilegesInterceptor, cih);    
-        sgf = new SearchGuardFilter(evaluator, adminDns, dlsFlsValve, auditLog, threadPool, cs);     
+        sgf = new SearchGuardFilter(evaluator, adminDns, dlsFlsValve, auditLog, threadPool, cs, settings);     
         
         
         final String principalExtractorClass = settings.get(SSLConfigConstants.SEARCHGUARD_SSL_TRANSPORT_PRINCIPAL_EXTRACTOR_CLASS, null);
@@ -741,6 +778,36 @@ public final class SearchGuardPlugin extends SearchGuardSSLPlugin {
         
         settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_DISABLED, false, Property.NodeScope, Property.Filtered));
         settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_TTL_MINUTES, 60, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.longSetting(ConfigConstants.SEARCHGUARD_CACHE_MAX_SIZE, 100000L, 0L, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_REFRESH_AFTER_WRITE_MINUTES, 0, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_NEGATIVE_TTL_SECONDS, 10, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_TTL_MINUTES, 60, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.longSetting(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_MAX_SIZE, 100000L, 0L, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_ENABLED, false, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_MAX_AGE_SECONDS, 60, 1, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.longSetting(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_TIMEOUT_MILLIS, 500L, 1L, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_MAX_NODES, 2, 1, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_CACHE_WARMUP_ENABLED, false, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.longSetting(ConfigConstants.SEARCHGUARD_CACHE_WARMUP_MAX_PRINCIPALS, 1000L, 0L, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_CACHE_WARMUP_RECENT_MINUTES, 1440, 1, Property.NodeScope, Property.Filtered));
+        
+        for(final String rateLimitPrefix: new String[] {ConfigConstants.SEARCHGUARD_AUTH_RATE_LIMIT_IP_PREFIX, ConfigConstants.SEARCHGUARD_AUTH_RATE_LIMIT_USERNAME_PREFIX}) {
+            settings.add(Setting.intSetting(rateLimitPrefix+".allowed_tries", 0, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(rateLimitPrefix+".time_window_seconds", 60, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(rateLimitPrefix+".block_expiry_seconds", 300, 1, Property.NodeScope, Property.Filtered));
+        }
+        
+        settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_ENABLED, false, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_MIN_INDICES, 100, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_MIN_SUB_REQUESTS, 100, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_OFFHEAP_ROLES_ENABLED, false, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_BCRYPT_OFFLOAD_ENABLED, false, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.longSetting(ConfigConstants.SEARCHGUARD_TRANSPORT_HEADER_CACHE_MAX_SIZE, 1000L, 0L, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.listSetting(ConfigConstants.SEARCHGUARD_STATS_ROLES_ENABLED, Collections.singletonList("sg_all_access"), Function.identity(), Property.NodeScope, Property.Filtered));
+        settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_ENABLED, false, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.longSetting(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_CACHE_MAX_SIZE, 10000L, 0L, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_CACHE_TTL_SECONDS, 60, 0, Property.NodeScope, Property.Filtered));
+        settings.add(Setting.intSetting(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_NEGATIVE_CACHE_TTL_SECONDS, 5, 0, Property.NodeScope, Property.Filtered));
 
         //SG6
         settings.add(Setting.boolSetting(ConfigConstants.SEARCHGUARD_ENTERPRISE_MODULES_ENABLED, true, Property.NodeScope, Property.Filtered));    
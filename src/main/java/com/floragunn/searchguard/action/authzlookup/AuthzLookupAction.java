@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.action.authzlookup;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Node to node action to fetch the cached authorization result (backend roles and attributes) of a user from the peers
+ */
+public class AuthzLookupAction extends Action<AuthzLookupRequest, AuthzLookupResponse, AuthzLookupRequestBuilder> {
+
+    public static final AuthzLookupAction INSTANCE = new AuthzLookupAction();
+    public static final String NAME = "internal:searchguard/authz/lookup";
+
+    protected AuthzLookupAction() {
+        super(NAME);
+    }
+
+    @Override
+    public AuthzLookupRequestBuilder newRequestBuilder(final ElasticsearchClient client) {
+        return new AuthzLookupRequestBuilder(client, this);
+    }
+
+    @Override
+    public AuthzLookupResponse newResponse() {
+        return new AuthzLookupResponse();
+    }
+
+}
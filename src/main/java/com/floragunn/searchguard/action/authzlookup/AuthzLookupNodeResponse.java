@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.action.authzlookup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+/**
+ * The cached authorization result of one node, only roles and attributes (never credentials)
+ */
+public class AuthzLookupNodeResponse extends BaseNodeResponse {
+    
+    private boolean found;
+    private Set<String> roles = Collections.emptySet();
+    private Map<String, String> attributes = Collections.emptyMap();
+    private long ageMillis;
+    
+    AuthzLookupNodeResponse() {
+    }
+
+    /**
+     * A node which has no fresh entry for the user
+     */
+    public AuthzLookupNodeResponse(final DiscoveryNode node) {
+        super(node);
+    }
+
+    /**
+     * @param ageMillis how long ago the node loaded the roles from its authorization backends
+     */
+    public AuthzLookupNodeResponse(final DiscoveryNode node, final Set<String> roles, final Map<String, String> attributes, final long ageMillis) {
+        super(node);
+        this.found = true;
+        this.roles = roles;
+        this.attributes = attributes;
+        this.ageMillis = ageMillis;
+    }
+    
+    public static AuthzLookupNodeResponse readNodeResponse(StreamInput in) throws IOException {
+        AuthzLookupNodeResponse nodeResponse = new AuthzLookupNodeResponse();
+        nodeResponse.readFrom(in);
+        return nodeResponse;
+    }
+    
+    public boolean isFound() {
+        return found;
+    }
+
+    public Set<String> getRoles() {
+        return Collections.unmodifiableSet(roles);
+    }
+
+    public Map<String, String> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    public long getAgeMillis() {
+        return ageMillis;
+    }
+    
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(found);
+        
+        if(found) {
+            out.writeVInt(roles.size());
+            for(final String role: roles) {
+                out.writeString(role);
+            }
+            
+            out.writeVInt(attributes.size());
+            for(final Entry<String, String> attribute: attributes.entrySet()) {
+                out.writeString(attribute.getKey());
+                out.writeOptionalString(attribute.getValue());
+            }
+            
+            out.writeVLong(ageMillis);
+        }
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        found = in.readBoolean();
+        
+        if(found) {
+            final int roleCount = in.readVInt();
+            roles = new HashSet<String>(roleCount);
+            for(int i = 0; i < roleCount; i++) {
+                roles.add(in.readString());
+            }
+            
+            final int attributeCount = in.readVInt();
+            attributes = new HashMap<String, String>(attributeCount);
+            for(int i = 0; i < attributeCount; i++) {
+                attributes.put(in.readString(), in.readOptionalString());
+            }
+            
+            ageMillis = in.readVLong();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AuthzLookupNodeResponse [found=" + found + ", roles=" + roles + ", ageMillis=" + ageMillis + "]";
+    }
+}
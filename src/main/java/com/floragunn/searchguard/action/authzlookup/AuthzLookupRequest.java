@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.action.authzlookup;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class AuthzLookupRequest extends BaseNodesRequest<AuthzLookupRequest> {
+
+    private String authDomain;
+    private String username;
+    private boolean rest;
+    private long configVersion;
+    private int maxNodes;
+
+    public AuthzLookupRequest() {
+        super();
+    }
+
+    /**
+     * @param authDomain the name of the auth domain which authenticated the principal
+     * @param username the principal
+     * @param rest true for the roles of the REST authorizers, false for the transport authorizers
+     * @param configVersion the version of the sg_config the requesting node uses, peers with another version do not answer
+     */
+    public AuthzLookupRequest(final String authDomain, final String username, final boolean rest, final long configVersion) {
+        super();
+        this.authDomain = authDomain;
+        this.username = username;
+        this.rest = rest;
+        this.configVersion = configVersion;
+    }
+
+    @Override
+    public void readFrom(final StreamInput in) throws IOException {
+        super.readFrom(in);
+        this.authDomain = in.readString();
+        this.username = in.readString();
+        this.rest = in.readBoolean();
+        this.configVersion = in.readLong();
+        this.maxNodes = in.readVInt();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(authDomain);
+        out.writeString(username);
+        out.writeBoolean(rest);
+        out.writeLong(configVersion);
+        out.writeVInt(maxNodes);
+    }
+
+    public String getAuthDomain() {
+        return authDomain;
+    }
+
+    public void setAuthDomain(final String authDomain) {
+        this.authDomain = authDomain;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+
+    public boolean isRest() {
+        return rest;
+    }
+
+    public void setRest(final boolean rest) {
+        this.rest = rest;
+    }
+
+    public long getConfigVersion() {
+        return configVersion;
+    }
+
+    public void setConfigVersion(final long configVersion) {
+        this.configVersion = configVersion;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @param maxNodes the number of peers to ask, they are chosen by the hash of auth domain and username 
+     *        so all nodes ask the same peers for a user, 0 for all peers
+     */
+    public void setMaxNodes(final int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        if (authDomain == null || username == null || username.isEmpty() || maxNodes < 0) {
+            return new ActionRequestValidationException();
+        }
+        return null;
+    }
+}
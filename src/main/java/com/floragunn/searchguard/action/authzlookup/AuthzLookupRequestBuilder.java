@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.action.authzlookup;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ClusterAdminClient;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class AuthzLookupRequestBuilder extends
+NodesOperationRequestBuilder<AuthzLookupRequest, AuthzLookupResponse, AuthzLookupRequestBuilder> {
+    public AuthzLookupRequestBuilder(final ClusterAdminClient client) {
+        this(client, AuthzLookupAction.INSTANCE);
+    }
+
+    public AuthzLookupRequestBuilder(final ElasticsearchClient client, final AuthzLookupAction action) {
+        super(client, action, new AuthzLookupRequest());
+    }
+
+    public AuthzLookupRequestBuilder setAuthDomain(final String authDomain) {
+        request().setAuthDomain(authDomain);
+        return this;
+    }
+
+    public AuthzLookupRequestBuilder setUsername(final String username) {
+        request().setUsername(username);
+        return this;
+    }
+
+    public AuthzLookupRequestBuilder setRest(final boolean rest) {
+        request().setRest(rest);
+        return this;
+    }
+
+    public AuthzLookupRequestBuilder setMaxNodes(final int maxNodes) {
+        request().setMaxNodes(maxNodes);
+        return this;
+    }
+
+    public AuthzLookupRequestBuilder setConfigVersion(final long configVersion) {
+        request().setConfigVersion(configVersion);
+        return this;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.action.authzlookup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import com.floragunn.searchguard.auth.BackendRegistry;
+import com.floragunn.searchguard.user.User;
+
+public class TransportAuthzLookupAction
+extends
+TransportNodesAction<AuthzLookupRequest, AuthzLookupResponse, TransportAuthzLookupAction.NodeAuthzLookupRequest, AuthzLookupNodeResponse> {
+
+    private final Provider<BackendRegistry> backendRegistry;
+    
+    @Inject
+    public TransportAuthzLookupAction(final Settings settings,
+            final ThreadPool threadPool, final ClusterService clusterService, final TransportService transportService,
+            final ActionFilters actionFilters, final IndexNameExpressionResolver indexNameExpressionResolver,
+            Provider<BackendRegistry> backendRegistry) {
+        
+        super(settings, AuthzLookupAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, AuthzLookupRequest::new, TransportAuthzLookupAction.NodeAuthzLookupRequest::new,
+                ThreadPool.Names.MANAGEMENT, AuthzLookupNodeResponse.class);
+
+        this.backendRegistry = backendRegistry;
+    }
+
+    public static class NodeAuthzLookupRequest extends BaseNodeRequest {
+
+        AuthzLookupRequest request;
+
+        public NodeAuthzLookupRequest() {
+        }
+
+        public NodeAuthzLookupRequest(final String nodeId, final AuthzLookupRequest request) {
+            super(nodeId);
+            this.request = request;
+        }
+
+        @Override
+        public void readFrom(final StreamInput in) throws IOException {
+            super.readFrom(in);
+            request = new AuthzLookupRequest();
+            request.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            super.writeTo(out);
+            request.writeTo(out);
+        }
+    }
+
+    /**
+     * Only the peers are asked, the local cache was already checked by the caller.
+     * If max nodes is set only that many peers are asked, starting at the one the hash of auth domain and username
+     * points to, so lookups for the same user go to the same peers.
+     */
+    @Override
+    protected void resolveRequest(final AuthzLookupRequest request, final ClusterState clusterState) {
+        final String localNodeId = clusterState.nodes().getLocalNodeId();
+        final DiscoveryNode[] peers = Arrays.stream(clusterState.nodes().resolveNodes(request.nodesIds()))
+                .filter(nodeId -> !nodeId.equals(localNodeId))
+                .sorted()
+                .map(clusterState.nodes()::get)
+                .toArray(DiscoveryNode[]::new);
+        
+        if(request.getMaxNodes() <= 0 || peers.length <= request.getMaxNodes()) {
+            request.setConcreteNodes(peers);
+            return;
+        }
+        
+        final int first = Math.floorMod(Objects.hash(request.getAuthDomain(), request.getUsername()), peers.length);
+        final DiscoveryNode[] owners = new DiscoveryNode[request.getMaxNodes()];
+        
+        for(int i = 0; i < owners.length; i++) {
+            owners[i] = peers[(first + i) % peers.length];
+        }
+        
+        request.setConcreteNodes(owners);
+    }
+
+    protected NodeAuthzLookupRequest newNodeRequest(final String nodeId, final AuthzLookupRequest request) {
+        return new NodeAuthzLookupRequest(nodeId, request);
+    }
+
+    @Override
+    protected AuthzLookupNodeResponse newNodeResponse() {
+        return new AuthzLookupNodeResponse(clusterService.localNode());
+    }
+    
+    @Override
+    protected AuthzLookupResponse newResponse(AuthzLookupRequest request, List<AuthzLookupNodeResponse> responses,
+            List<FailedNodeException> failures) {
+        return new AuthzLookupResponse(this.clusterService.getClusterName(), responses, failures);
+    }
+	
+    @Override
+    protected AuthzLookupNodeResponse nodeOperation(final NodeAuthzLookupRequest request) {
+        final Tuple<User, Long> cached = backendRegistry.get().getCachedAuthzResult(request.request.isRest(), 
+                request.request.getAuthDomain(), request.request.getUsername(), request.request.getConfigVersion());
+        
+        if(cached == null) {
+            return new AuthzLookupNodeResponse(clusterService.localNode());
+        }
+        
+        final User authzResult = cached.v1();
+        return new AuthzLookupNodeResponse(clusterService.localNode(), authzResult.getRoles(), 
+                authzResult.getCustomAttributesMap(), cached.v2());
+    }
+}
@@ -19,6 +19,7 @@ package com.floragunn.searchguard.action.configupdate;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -110,6 +111,16 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
 	
     @Override
     protected ConfigUpdateNodeResponse nodeOperation(final NodeConfigUpdateRequest request) {
+        final Map<String, Settings> previous = new HashMap<String, Settings>();
+        
+        //before initialization there is nothing to compare with (and nothing cached)
+        for(final String configType: backendRegistry.get().isInitialized() ? request.request.getConfigTypes() : new String[0]) {
+            final Settings current = configurationRepository.getConfiguration(configType);
+            if(current != null) {
+                previous.put(configType, current);
+            }
+        }
+        
         final Map<String, Settings> setn = configurationRepository.reloadConfiguration(Arrays.asList(request.request.getConfigTypes()));
         String licenseText = null;
         
@@ -131,7 +142,7 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
             }
         }
 
-        backendRegistry.get().invalidateCache();
+        backendRegistry.get().invalidateCache(previous, setn);
         return new ConfigUpdateNodeResponse(clusterService.localNode(), setn.keySet().toArray(new String[0]), null); 
     }
 }
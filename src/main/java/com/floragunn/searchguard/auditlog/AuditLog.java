@@ -30,6 +30,15 @@ public interface AuditLog extends Closeable {
     void logFailedLogin(String effectiveUser, boolean sgadmin, String initiatingUser, RestRequest request);
     void logSucceededLogin(String effectiveUser, boolean sgadmin, String initiatingUser, TransportRequest request, String action, Task task);
     void logSucceededLogin(String effectiveUser, boolean sgadmin, String initiatingUser, RestRequest request);
+    
+    /**
+     * Failed logins with credentials which already failed shortly before are rejected without asking the
+     * authentication backend again, they are reported here in aggregate
+     * 
+     * @param effectiveUser the username of the rejected credentials
+     * @param count how often the same credentials were rejected
+     */
+    void logRepeatedFailedLogins(String effectiveUser, long count);
 
     //privs
     void logMissingPrivileges(String privilege, String effectiveUser, RestRequest request);
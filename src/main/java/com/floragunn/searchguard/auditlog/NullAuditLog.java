@@ -40,6 +40,11 @@ public class NullAuditLog implements AuditLog {
         //noop, intentionally left empty
     }
 
+    @Override
+    public void logRepeatedFailedLogins(String effectiveUser, long count) {
+        //noop, intentionally left empty
+    }
+
     @Override
     public void logSucceededLogin(String effectiveUser, boolean sgadmin, String initiatingUser, TransportRequest request, String action, Task task) {
         //noop, intentionally left empty
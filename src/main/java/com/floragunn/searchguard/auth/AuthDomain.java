@@ -18,20 +18,39 @@
 package com.floragunn.searchguard.auth;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 
 public class AuthDomain implements Comparable<AuthDomain> {
 
+    private final String name;
     private final AuthenticationBackend backend;
     private final HTTPAuthenticator httpAuthenticator;
     private final int order;
     private final boolean challenge;
+    private final AuthDomainCircuitBreaker circuitBreaker;
+    private final LongAdder authenticatedCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
 
     public AuthDomain(final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge, final int order) {
+        this("order_" + order, backend, httpAuthenticator, challenge, order, AuthDomainCircuitBreaker.DISABLED);
+    }
+
+    /**
+     * @param name the name of the auth domain in sg_config (searchguard.dynamic.authc.&lt;name&gt;)
+     */
+    public AuthDomain(final String name, final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge, 
+            final int order, final AuthDomainCircuitBreaker circuitBreaker) {
         super();
+        this.name = Objects.requireNonNull(name);
         this.backend = Objects.requireNonNull(backend);
         this.httpAuthenticator = httpAuthenticator;
         this.order = order;
         this.challenge = challenge;
+        this.circuitBreaker = Objects.requireNonNull(circuitBreaker);
+    }
+
+    public String getName() {
+        return name;
     }
 
     public boolean isChallenge() {
@@ -50,9 +69,35 @@ public class AuthDomain implements Comparable<AuthDomain> {
         return order;
     }
 
+    public AuthDomainCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Count a request which was authenticated by this domain
+     */
+    public void onAuthenticated() {
+        authenticatedCount.increment();
+    }
+
+    /**
+     * Count a request which was not passed to the http authenticator because it lacks the required headers
+     */
+    public void onSkipped() {
+        skippedCount.increment();
+    }
+
+    public long getAuthenticatedCount() {
+        return authenticatedCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
     @Override
     public String toString() {
-        return "AuthDomain [backend=" + backend + ", httpAuthenticator=" + httpAuthenticator + ", order=" + order + ", challenge="
+        return "AuthDomain [name=" + name + ", backend=" + backend + ", httpAuthenticator=" + httpAuthenticator + ", order=" + order + ", challenge="
                 + challenge + "]";
     }
 
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Latency budget and circuit breaker for the authentication backend of one auth domain.
+ * <p>
+ * Calls which exceed timeout_ms are cancelled (the backend thread is interrupted). After circuit_breaker.failure_threshold consecutive timeouts or
+ * backend faults (not: wrong credentials) the domain is skipped for circuit_breaker.cool_down_seconds, then a single
+ * probe is let through (half open) which either closes the breaker again or reopens it.
+ */
+public final class AuthDomainCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    //upper bounds of the latency histogram buckets in milliseconds, the last bucket is unbounded
+    private static final long[] LATENCY_BUCKETS_MS = new long[] { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+    static final AuthDomainCircuitBreaker DISABLED = new AuthDomainCircuitBreaker("", Settings.EMPTY, null);
+
+    protected final Logger log = LogManager.getLogger(this.getClass());
+    private final String name;
+    private final long timeoutMs;
+    private final int failureThreshold;
+    private final long coolDownNanos;
+    private final ExecutorService executor;
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+    private final AtomicInteger consecutiveFaults = new AtomicInteger();
+    private volatile long openedAt;
+    private final LongAdder[] latencies = new LongAdder[LATENCY_BUCKETS_MS.length + 1];
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder faultCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+
+    /**
+     * @param domainSettings the settings of the auth domain in sg_config (searchguard.dynamic.authc.&lt;name&gt;)
+     * @param name the name of the auth domain, only used for logging and messages
+     * @param executor bounded executor which runs the backend calls if a timeout is configured, 
+     *        if null calls are done in the calling thread without timeout
+     */
+    public AuthDomainCircuitBreaker(final String name, final Settings domainSettings, final ExecutorService executor) {
+        this.name = name;
+        this.executor = executor;
+        this.timeoutMs = executor == null ? 0 : domainSettings.getAsLong("timeout_ms", 0L);
+        this.failureThreshold = domainSettings.getAsInt("circuit_breaker.failure_threshold", 0);
+        this.coolDownNanos = TimeUnit.SECONDS.toNanos(domainSettings.getAsInt("circuit_breaker.cool_down_seconds", 30));
+
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Call the backend through the breaker
+     *
+     * @throws ElasticsearchSecurityException with status 503 if the breaker is open or the call timed out,
+     *         with status 429 if the executor for the backend calls is saturated
+     */
+    public <T> T call(final Callable<T> backendCall) throws Exception {
+
+        if (!allowRequest()) {
+            skippedCount.increment();
+            throw new ElasticsearchSecurityException("Auth domain " + name + " is temporarily unavailable (circuit breaker open)",
+                    RestStatus.SERVICE_UNAVAILABLE);
+        }
+
+        final long start = System.nanoTime();
+
+        try {
+            final T result = timeoutMs > 0 ? callWithTimeout(backendCall) : backendCall.call();
+            onSuccess();
+            return result;
+        } catch (BackendCallRejectedException e) {
+            //says nothing about the health of the backend
+            throw e.getCause();
+        } catch (Exception e) {
+            if (isBackendFault(e)) {
+                onFault(e);
+            } else if (e instanceof ElasticsearchSecurityException) {
+                //the backend answered (e.g. wrong password), so it is healthy
+                onSuccess();
+            }
+            throw e;
+        } finally {
+            recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("state", state.get().toString());
+        statistics.put("consecutive_faults", consecutiveFaults.get());
+        statistics.put("fault_count", faultCount.sum());
+        statistics.put("timeout_count", timeoutCount.sum());
+        statistics.put("skipped_count", skippedCount.sum());
+
+        final Map<String, Object> histogram = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+            histogram.put("le_" + LATENCY_BUCKETS_MS[i] + "ms", latencies[i].sum());
+        }
+        histogram.put("gt_" + LATENCY_BUCKETS_MS[LATENCY_BUCKETS_MS.length - 1] + "ms", latencies[LATENCY_BUCKETS_MS.length].sum());
+        statistics.put("latency", histogram);
+        return statistics;
+    }
+
+    /**
+     * @return true only for IO errors, timeouts and an unavailable backend (somewhere in the causes), false if the backend
+     *         rejected the credentials or failed otherwise (e.g. a NullPointerException or IllegalArgumentException
+     *         says nothing about the health of the backend)
+     */
+    static boolean isBackendFault(final Throwable e) {
+        Throwable cause = e;
+
+        while (cause != null) {
+            if (cause instanceof IOException || cause instanceof TimeoutException || cause instanceof ElasticsearchTimeoutException
+                    || cause instanceof javax.naming.CommunicationException || cause instanceof javax.naming.ServiceUnavailableException
+                    || (cause instanceof ElasticsearchException && isUnavailable(((ElasticsearchException) cause).status()))) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+
+        return false;
+    }
+
+    private static boolean isUnavailable(final RestStatus status) {
+        return status == RestStatus.SERVICE_UNAVAILABLE || status == RestStatus.GATEWAY_TIMEOUT;
+    }
+
+    private boolean allowRequest() {
+        if (failureThreshold <= 0) {
+            return true;
+        }
+
+        final State current = state.get();
+
+        if (current == State.CLOSED) {
+            return true;
+        }
+
+        //open or a probe is already running, let exactly one probe through after the cool down
+        if (System.nanoTime() - openedAt >= coolDownNanos && state.compareAndSet(current, State.HALF_OPEN)) {
+            openedAt = System.nanoTime();
+            if (log.isDebugEnabled()) {
+                log.debug("Probe auth domain {} (half open)", name);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private void onSuccess() {
+        consecutiveFaults.set(0);
+
+        if (state.get() != State.CLOSED && state.getAndSet(State.CLOSED) != State.CLOSED) {
+            log.info("Auth domain {} is available again, circuit breaker closed", name);
+        }
+    }
+
+    private void onFault(final Exception e) {
+        faultCount.increment();
+
+        if (failureThreshold <= 0) {
+            return;
+        }
+
+        if (consecutiveFaults.incrementAndGet() >= failureThreshold || state.get() == State.HALF_OPEN) {
+            openedAt = System.nanoTime();
+
+            if (state.getAndSet(State.OPEN) != State.OPEN) {
+                log.warn("Auth domain {} failed {} times in a row (last: {}), skip it for {} seconds", name, consecutiveFaults.get(),
+                        e.toString(), TimeUnit.NANOSECONDS.toSeconds(coolDownNanos));
+            }
+        }
+    }
+
+    private <T> T callWithTimeout(final Callable<T> backendCall) throws Exception {
+        final Future<T> future;
+
+        try {
+            future = executor.submit(backendCall);
+        } catch (EsRejectedExecutionException e) {
+            throw new BackendCallRejectedException(new ElasticsearchSecurityException(
+                    "Too many concurrent calls to auth domain " + name + ", try again later", RestStatus.TOO_MANY_REQUESTS, e));
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutCount.increment();
+            throw new ElasticsearchSecurityException("Auth domain " + name + " did not respond within " + timeoutMs + " ms",
+                    RestStatus.SERVICE_UNAVAILABLE, e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class BackendCallRejectedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        BackendCallRejectedException(final ElasticsearchSecurityException cause) {
+            super(cause.getMessage(), cause, false, false);
+        }
+
+        @Override
+        public synchronized ElasticsearchSecurityException getCause() {
+            return (ElasticsearchSecurityException) super.getCause();
+        }
+    }
+
+    private void recordLatency(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+            if (millis <= LATENCY_BUCKETS_MS[i]) {
+                latencies[i].increment();
+                return;
+            }
+        }
+
+        latencies[LATENCY_BUCKETS_MS.length].increment();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Settings;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Blocks a client (remote address or username from a remote address) for block_expiry_seconds after it exceeded
+ * allowed_tries failed authentications within time_window_seconds.
+ * <p>
+ * A blocked client is rejected before any authentication backend is asked. The windows live in a bounded cache
+ * (which is internally striped), the counters itself are lock free.
+ */
+final class AuthenticationRateLimiter {
+
+    static final String ALLOWED_TRIES = ".allowed_tries";
+    static final String TIME_WINDOW_SECONDS = ".time_window_seconds";
+    static final String BLOCK_EXPIRY_SECONDS = ".block_expiry_seconds";
+
+    protected final Logger log = LogManager.getLogger(this.getClass());
+    private final String type;
+    private final int allowedTries;
+    private final long timeWindowNanos;
+    private final long blockExpiryNanos;
+    private final Cache<String, Window> windows;
+    private final LongAdder blockedCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+
+    /**
+     * @param type name of the client key for logging and statistics, e.g. "ip" or "username"
+     * @param prefix settings prefix, e.g. searchguard.auth.rate_limit.ip
+     */
+    AuthenticationRateLimiter(final String type, final String prefix, final Settings settings, final long maxClients) {
+        this.type = type;
+        this.allowedTries = settings.getAsInt(prefix + ALLOWED_TRIES, 0);
+        final int timeWindowSec = settings.getAsInt(prefix + TIME_WINDOW_SECONDS, 60);
+        final int blockExpirySec = settings.getAsInt(prefix + BLOCK_EXPIRY_SECONDS, 300);
+        this.timeWindowNanos = TimeUnit.SECONDS.toNanos(timeWindowSec);
+        this.blockExpiryNanos = TimeUnit.SECONDS.toNanos(blockExpirySec);
+        this.windows = CacheBuilder.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Math.max(timeWindowSec, blockExpirySec), TimeUnit.SECONDS)
+                .build();
+    }
+
+    boolean isEnabled() {
+        return allowedTries > 0;
+    }
+
+    /**
+     * @return true if the client is currently blocked, the attempt is counted as throttled
+     */
+    boolean isBlocked(final String client) {
+        if (!isEnabled() || client == null) {
+            return false;
+        }
+
+        final Window window = windows.getIfPresent(client);
+
+        if (window == null) {
+            return false;
+        }
+
+        final long blockedUntil = window.blockedUntil;
+
+        if (blockedUntil != 0 && System.nanoTime() - blockedUntil < 0) {
+            throttledCount.increment();
+            return true;
+        }
+
+        return false;
+    }
+
+    void onFailure(final String client) {
+        if (!isEnabled() || client == null) {
+            return;
+        }
+
+        final Window window;
+
+        try {
+            window = windows.get(client, Window::new);
+        } catch (ExecutionException e) {
+            //cannot happen, the loader does not throw
+            return;
+        }
+
+        final long now = System.nanoTime();
+
+        if (now - window.start > timeWindowNanos) {
+            //a concurrent failure might be lost while the window is reset, which is acceptable
+            window.start = now;
+            window.failures.reset();
+        }
+
+        window.failures.increment();
+
+        if (window.failures.sum() >= allowedTries && (window.blockedUntil == 0 || now - window.blockedUntil >= 0)) {
+            window.blockedUntil = now + blockExpiryNanos;
+            window.start = now;
+            window.failures.reset();
+            blockedCount.increment();
+            log.warn("Block {} {} for {} seconds after {} failed authentication attempts", type, client,
+                    TimeUnit.NANOSECONDS.toSeconds(blockExpiryNanos), allowedTries);
+        }
+    }
+
+    Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("enabled", isEnabled());
+        statistics.put("tracked_clients", windows.size());
+        statistics.put("blocked_count", blockedCount.sum());
+        statistics.put("throttled_count", throttledCount.sum());
+        return statistics;
+    }
+
+    private static final class Window {
+
+        volatile long start = System.nanoTime();
+        final LongAdder failures = new LongAdder();
+        //System.nanoTime() until the client is blocked, 0 if it was never blocked
+        volatile long blockedUntil;
+    }
+}
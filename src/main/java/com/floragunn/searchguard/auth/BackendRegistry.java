@@ -17,24 +17,48 @@
 
 package com.floragunn.searchguard.auth;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
 
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.http.netty4.Netty4HttpRequest;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
@@ -43,15 +67,22 @@ import org.elasticsearch.tasks.Task;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportRequest;
 
+import com.floragunn.searchguard.action.authzlookup.AuthzLookupAction;
+import com.floragunn.searchguard.action.authzlookup.AuthzLookupNodeResponse;
+import com.floragunn.searchguard.action.authzlookup.AuthzLookupRequest;
+import com.floragunn.searchguard.action.authzlookup.AuthzLookupResponse;
 import com.floragunn.searchguard.auditlog.AuditLog;
 import com.floragunn.searchguard.auth.internal.InternalAuthenticationBackend;
 import com.floragunn.searchguard.auth.internal.NoOpAuthenticationBackend;
 import com.floragunn.searchguard.auth.internal.NoOpAuthorizationBackend;
 import com.floragunn.searchguard.configuration.AdminDNs;
 import com.floragunn.searchguard.configuration.ConfigurationChangeListener;
+import com.floragunn.searchguard.configuration.ConfigurationRepository;
+import com.floragunn.searchguard.configuration.EffectivePermissions;
 import com.floragunn.searchguard.http.HTTPBasicAuthenticator;
 import com.floragunn.searchguard.http.HTTPClientCertAuthenticator;
 import com.floragunn.searchguard.http.HTTPProxyAuthenticator;
+import com.floragunn.searchguard.http.HTTPSessionTokenAuthenticator;
 import com.floragunn.searchguard.http.XFFResolver;
 import com.floragunn.searchguard.ssl.util.Utils;
 import com.floragunn.searchguard.support.ConfigConstants;
@@ -62,35 +93,95 @@ import com.floragunn.searchguard.user.User;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
 
 public class BackendRegistry implements ConfigurationChangeListener {
 
     protected final Logger log = LogManager.getLogger(this.getClass());
     private final Map<String, String> authImplMap = new HashMap<String, String>();
-    private final SortedSet<AuthDomain> restAuthDomains = new TreeSet<AuthDomain>();
-    private final Set<AuthorizationBackend> restAuthorizers = new HashSet<AuthorizationBackend>();
-    private final SortedSet<AuthDomain> transportAuthDomains = new TreeSet<AuthDomain>();
-    private final Set<AuthorizationBackend> transportAuthorizers = new HashSet<AuthorizationBackend>();
-    private volatile boolean initialized;
+    //replaced as a whole on config change, never modified in place
+    private volatile AuthConfig authConfig = AuthConfig.EMPTY;
+    //the config settings the current auth config was built from
+    private volatile Settings lastConfig;
+    //hash of the sg_config, identical on all nodes which loaded the same config
+    private volatile long configVersion;
     private final AdminDNs adminDns;
     private final XFFResolver xffResolver;
-    private volatile boolean anonymousAuthEnabled = false;
     private final Settings esSettings;
     private final Path configPath;
     private final InternalAuthenticationBackend iab;
+    private final ConfigurationRepository configurationRepository;
     private final AuditLog auditLog;
     private final ThreadPool threadPool;
+    private final Client client;
     private final int ttlInMin;
+    private final long cacheMaxSize;
     private Cache<AuthCredentials, User> userCache;
     private Cache<String, User> userCacheTransport;
     private Cache<AuthCredentials, User> authenticatedUserCacheTransport;
     private Cache<String, User> restImpersonationCache;
+    //keyed by what the permissions are derived from, so users created per request (e.g. from a session token) share them
+    private Cache<SessionKey, EffectivePermissions.Holder> effectivePermissionsCache;
+    //keyed by the cached user instance, used to refresh entries before they expire
+    private Cache<User, RefreshState> refreshStates;
+    private final long refreshAfterWriteNanos;
+    //roles and attributes from the authorizers by username, they expire independently of the authentication result
+    //keyed by auth domain name and username
+    private Cache<Tuple<String, String>, User> restAuthzCache;
+    private Cache<Tuple<String, String>, User> transportAuthzCache;
+    //results of the cache warm-up, the authorizers only got the username, see getAuthzResult() when they are used
+    private Cache<Tuple<String, String>, User> restWarmedAuthzCache;
+    private Cache<Tuple<String, String>, User> transportWarmedAuthzCache;
+    private final int authzTtlInMin;
+    private final long authzCacheMaxSize;
+    private final long authzRefreshAfterWriteNanos;
+    //keyed by the cached authentication result (never modified), the value is the authz result and the authorized user 
+    //which was built from both
+    private Cache<User, Tuple<User, User>> authorizedUsers;
+    //System.nanoTime() when the authorizers were asked for an authz result (maybe on another node)
+    private Cache<User, Long> authzLoadTimes;
+    private final boolean peerLookupEnabled;
+    //internal users which are stored as individual documents (see InternalUsersDocumentStore)
+    private final boolean internalUsersOnDemand;
+    private final long peerLookupMaxAgeMillis;
+    private final TimeValue peerLookupTimeout;
+    private final int peerLookupMaxNodes;
+    //running peer lookups by rest/transport, auth domain name and username, see startPeerLookup()
+    private Cache<Tuple<Boolean, Tuple<String, String>>, PlainActionFuture<Tuple<User, Long>>> pendingPeerLookups;
+    //the config version for which no peer had a result
+    private Cache<Tuple<Boolean, Tuple<String, String>>, Long> peerLookupMisses;
+    private final LongAdder peerLookupHitCount = new LongAdder();
+    private final LongAdder peerLookupMissCount = new LongAdder();
+    private final LongAdder peerLookupFailureCount = new LongAdder();
+    private final LongAdder peerLookupServedCount = new LongAdder();
+    //transport client users which authenticated only with their certificate, keyed by the (low level) connection and valid as long as it is open
+    private Cache<Object, Tuple<String, User>> connectionUsers;
+    //user of the last basic authentication on a http keep-alive connection, lives as long as the netty channel
+    private static final AttributeKey<HttpConnectionBinding> HTTP_CONNECTION_BINDING = AttributeKey.valueOf("sg_http_connection_binding");
+    private final long httpConnectionBindingTtlNanos;
+    //incremented whenever cached users are invalidated, older http connection bindings are not longer valid
+    private final AtomicLong cacheGeneration = new AtomicLong();
+    private final LongAdder httpConnectionBindingHitCount = new LongAdder();
+    private final LongAdder sessionTokenIssuedCount = new LongAdder();
+    private final LongAdder sessionTokenAuthenticatedCount = new LongAdder();
+    //null if the cache warm-up is disabled
+    private final UserCacheWarmer cacheWarmer;
+    //credentials which recently failed per auth domain, the value counts the rejected repetitions
+    private Cache<Tuple<AuthDomain, AuthCredentials>, LongAdder> negativeCache;
+    private final int negativeTtlInSec;
+    private final LongAdder failedAuthenticationCount = new LongAdder();
+    private final LongAdder negativeCacheHitCount = new LongAdder();
+    private final AuthenticationRateLimiter ipRateLimiter;
+    private final AuthenticationRateLimiter usernameRateLimiter;
     
     private void createCaches() {
         userCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
                 .removalListener(new RemovalListener<AuthCredentials, User>() {
                     @Override
                     public void onRemoval(RemovalNotification<AuthCredentials, User> notification) {
@@ -100,6 +191,8 @@ public class BackendRegistry implements ConfigurationChangeListener {
         
         userCacheTransport = CacheBuilder.newBuilder()
                 .expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
                 .removalListener(new RemovalListener<String, User>() {
                     @Override
                     public void onRemoval(RemovalNotification<String, User> notification) {
@@ -109,6 +202,8 @@ public class BackendRegistry implements ConfigurationChangeListener {
         
         authenticatedUserCacheTransport = CacheBuilder.newBuilder()
                 .expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
                 .removalListener(new RemovalListener<AuthCredentials, User>() {
                     @Override
                     public void onRemoval(RemovalNotification<AuthCredentials, User> notification) {
@@ -118,23 +213,108 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
         restImpersonationCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
                 .removalListener(new RemovalListener<String, User>() {
                     @Override
                     public void onRemoval(RemovalNotification<String, User> notification) {
                         log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
                     }
                 }).build();
+        
+        effectivePermissionsCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(ttlInMin, TimeUnit.MINUTES)
+                .maximumSize(cacheMaxSize)
+                .build();
+        
+        refreshStates = CacheBuilder.newBuilder()
+                .weakKeys()
+                .expireAfterWrite(Math.max(ttlInMin, authzTtlInMin), TimeUnit.MINUTES)
+                .build();
+        
+        restAuthzCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(authzTtlInMin, TimeUnit.MINUTES)
+                .maximumSize(authzCacheMaxSize)
+                .recordStats()
+                .removalListener(new RemovalListener<Tuple<String, String>, User>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Tuple<String, String>, User> notification) {
+                        log.debug("Clear authz cache for {} due to {}", notification.getKey(), notification.getCause());
+                    }
+                }).build();
+        
+        transportAuthzCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(authzTtlInMin, TimeUnit.MINUTES)
+                .maximumSize(authzCacheMaxSize)
+                .recordStats()
+                .removalListener(new RemovalListener<Tuple<String, String>, User>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Tuple<String, String>, User> notification) {
+                        log.debug("Clear authz cache for {} due to {}", notification.getKey(), notification.getCause());
+                    }
+                }).build();
+        
+        restWarmedAuthzCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(authzTtlInMin, TimeUnit.MINUTES)
+                .maximumSize(authzCacheMaxSize)
+                .build();
+        
+        transportWarmedAuthzCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(authzTtlInMin, TimeUnit.MINUTES)
+                .maximumSize(authzCacheMaxSize)
+                .build();
+        
+        pendingPeerLookups = CacheBuilder.newBuilder()
+                .expireAfterWrite(2 * peerLookupTimeout.millis(), TimeUnit.MILLISECONDS)
+                .maximumSize(authzCacheMaxSize)
+                .build();
+        
+        peerLookupMisses = CacheBuilder.newBuilder()
+                .expireAfterWrite(peerLookupMaxAgeMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(authzCacheMaxSize)
+                .build();
+        
+        //no expiry, lives as long as the authenticated user is cached
+        authorizedUsers = CacheBuilder.newBuilder()
+                .weakKeys()
+                .build();
+        
+        authzLoadTimes = CacheBuilder.newBuilder()
+                .weakKeys()
+                .expireAfterWrite(authzTtlInMin, TimeUnit.MINUTES)
+                .build();
+        
+        connectionUsers = CacheBuilder.newBuilder()
+                .weakKeys()
+                .expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        
+        negativeCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(negativeTtlInSec, TimeUnit.SECONDS)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .removalListener(new RepeatedFailedLoginReporter(auditLog))
+                .build();
     }
 
+    /**
+     * @param configurationRepository used to derive the session token signing key from all configuration types, maybe null
+     * @param dataPath the node data path where the names of recently active users are kept for the cache warm-up, maybe null
+     * @param client used to ask the other nodes for their cached roles of a user, maybe null
+     */
     public BackendRegistry(final Settings settings, final Path configPath, final AdminDNs adminDns, 
-            final XFFResolver xffResolver, final InternalAuthenticationBackend iab, final AuditLog auditLog, final ThreadPool threadPool) {
+            final XFFResolver xffResolver, final InternalAuthenticationBackend iab, final ConfigurationRepository configurationRepository, 
+            final AuditLog auditLog, final ThreadPool threadPool, final Path dataPath, final Client client) {
         this.adminDns = adminDns;
         this.esSettings = settings;
         this.configPath = configPath;
         this.xffResolver = xffResolver;
         this.iab = iab;
+        this.configurationRepository = configurationRepository;
         this.auditLog = auditLog;
         this.threadPool = threadPool;
+        this.client = client;
         
         authImplMap.put("intern_c", InternalAuthenticationBackend.class.getName());
         authImplMap.put("intern_z", NoOpAuthorizationBackend.class.getName());
@@ -155,30 +335,327 @@ public class BackendRegistry implements ConfigurationChangeListener {
         authImplMap.put("jwt_h", "com.floragunn.dlic.auth.http.jwt.HTTPJwtAuthenticator");
         
         this.ttlInMin = settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_TTL_MINUTES, 60);
+        this.internalUsersOnDemand = settings.getAsBoolean(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_ENABLED, false);
+        this.cacheMaxSize = settings.getAsLong(ConfigConstants.SEARCHGUARD_CACHE_MAX_SIZE, 100000L);
+        final int refreshAfterWriteMin = settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_REFRESH_AFTER_WRITE_MINUTES, 0);
+        this.refreshAfterWriteNanos = refreshAfterWriteMin > 0 && refreshAfterWriteMin < ttlInMin ? TimeUnit.MINUTES.toNanos(refreshAfterWriteMin) : 0;
+        this.authzTtlInMin = settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_TTL_MINUTES, ttlInMin);
+        this.authzCacheMaxSize = settings.getAsLong(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_MAX_SIZE, cacheMaxSize);
+        this.authzRefreshAfterWriteNanos = refreshAfterWriteMin > 0 && refreshAfterWriteMin < authzTtlInMin ? TimeUnit.MINUTES.toNanos(refreshAfterWriteMin) : 0;
+        this.httpConnectionBindingTtlNanos = authzRefreshAfterWriteNanos > 0 ? authzRefreshAfterWriteNanos : TimeUnit.MINUTES.toNanos(Math.min(ttlInMin, authzTtlInMin));
+        this.peerLookupEnabled = client != null && settings.getAsBoolean(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_ENABLED, false);
+        this.peerLookupMaxAgeMillis = TimeUnit.SECONDS.toMillis(settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_MAX_AGE_SECONDS, 60));
+        this.peerLookupTimeout = TimeValue.timeValueMillis(settings.getAsLong(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_TIMEOUT_MILLIS, 500L));
+        this.peerLookupMaxNodes = settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_MAX_NODES, 2);
+        this.negativeTtlInSec = settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_NEGATIVE_TTL_SECONDS, 10);
+        this.ipRateLimiter = new AuthenticationRateLimiter("ip", ConfigConstants.SEARCHGUARD_AUTH_RATE_LIMIT_IP_PREFIX, settings, cacheMaxSize);
+        this.usernameRateLimiter = new AuthenticationRateLimiter("username", ConfigConstants.SEARCHGUARD_AUTH_RATE_LIMIT_USERNAME_PREFIX, settings, cacheMaxSize);
         createCaches();
+        
+        if(settings.getAsBoolean(ConfigConstants.SEARCHGUARD_CACHE_WARMUP_ENABLED, false)) {
+            this.cacheWarmer = new UserCacheWarmer(dataPath == null ? null : dataPath.resolve("searchguard_recent_principals"), 
+                    settings.getAsLong(ConfigConstants.SEARCHGUARD_CACHE_WARMUP_MAX_PRINCIPALS, 1000L), 
+                    settings.getAsInt(ConfigConstants.SEARCHGUARD_CACHE_WARMUP_RECENT_MINUTES, 1440));
+            this.cacheWarmer.load();
+            threadPool.scheduleWithFixedDelay(cacheWarmer::persist, TimeValue.timeValueMinutes(1), ThreadPool.Names.GENERIC);
+        } else {
+            this.cacheWarmer = null;
+        }
     }
 
     public boolean isInitialized() {
-        return initialized;
+        return authConfig.initialized;
     }
     
     public void invalidateCache() {
+        cacheGeneration.incrementAndGet();
         userCache.invalidateAll();
         userCacheTransport.invalidateAll();
         authenticatedUserCacheTransport.invalidateAll();
         restImpersonationCache.invalidateAll();
+        restAuthzCache.invalidateAll();
+        transportAuthzCache.invalidateAll();
+        restWarmedAuthzCache.invalidateAll();
+        transportWarmedAuthzCache.invalidateAll();
+        pendingPeerLookups.invalidateAll();
+        peerLookupMisses.invalidateAll();
+        authorizedUsers.invalidateAll();
+        authzLoadTimes.invalidateAll();
+        connectionUsers.invalidateAll();
+        effectivePermissionsCache.invalidateAll();
+        refreshStates.invalidateAll();
+        negativeCache.invalidateAll();
+    }
+    
+    /**
+     * Invalidate only the cached data which depends on the reloaded configuration types.
+     * Changes of the auth domains ("config") flush all caches in {@link #onChange(Settings)}, a change of the internalusers
+     * evicts only the users whose entries changed and changes of roles, rolesmapping or actiongroups only drop
+     * the derived effective permissions. If internal users are also loaded on demand from documents all users which 
+     * are not part of the internalusers configuration are evicted as well, so reloading the internalusers applies
+     * changes of the user documents immediately.
+     * 
+     * @param previous the configuration before the reload (by type), empty or incomplete on the first load
+     * @param reloaded the configuration after the reload (by type)
+     */
+    public void invalidateCache(final Map<String, Settings> previous, final Map<String, Settings> reloaded) {
+        
+        if(reloaded.containsKey(ConfigConstants.CONFIGNAME_INTERNAL_USERS)) {
+            final Settings previousUsers = previous.get(ConfigConstants.CONFIGNAME_INTERNAL_USERS);
+            
+            if(previousUsers == null) {
+                invalidateCache();
+                return;
+            }
+            
+            final Set<String> changedUsers = getChangedUsers(previousUsers, reloaded.get(ConfigConstants.CONFIGNAME_INTERNAL_USERS));
+            
+            if(log.isDebugEnabled()) {
+                log.debug("Invalidate cached users {} due to internalusers change", changedUsers);
+            }
+            
+            if(internalUsersOnDemand) {
+                final Set<String> configuredUsers = getConfiguredUsers(reloaded.get(ConfigConstants.CONFIGNAME_INTERNAL_USERS));
+                invalidateUsers(u -> changedUsers.contains(u) || !configuredUsers.contains(u));
+            } else if(!changedUsers.isEmpty()) {
+                invalidateUsers(changedUsers::contains);
+            }
+            
+            negativeCache.invalidateAll();
+        }
+        
+        if(reloaded.containsKey(ConfigConstants.CONFIGNAME_ROLES) 
+                || reloaded.containsKey(ConfigConstants.CONFIGNAME_ROLES_MAPPING)
+                || reloaded.containsKey(ConfigConstants.CONFIGNAME_ACTION_GROUPS)) {
+            effectivePermissionsCache.invalidateAll();
+        }
+        
+        //a reload of the sg_config already rotated the key in onChange()
+        final AuthConfig authConfig = this.authConfig;
+        
+        if(authConfig.sessionTokenAuthenticator != null && lastConfig != null 
+                && !reloaded.containsKey(ConfigConstants.CONFIGNAME_CONFIG) && !reloaded.isEmpty()) {
+            this.authConfig = authConfig.withSessionTokenAuthenticator(newSessionTokenAuthenticator(lastConfig));
+        }
+    }
+    
+    private void invalidateUsers(final Predicate<String> usernames) {
+        cacheGeneration.incrementAndGet();
+        userCache.asMap().keySet().removeIf(c -> usernames.test(c.getUsername()));
+        userCacheTransport.asMap().keySet().removeIf(usernames);
+        authenticatedUserCacheTransport.asMap().keySet().removeIf(c -> usernames.test(c.getUsername()));
+        restImpersonationCache.asMap().keySet().removeIf(usernames);
+        restAuthzCache.asMap().keySet().removeIf(k -> usernames.test(k.v2()));
+        transportAuthzCache.asMap().keySet().removeIf(k -> usernames.test(k.v2()));
+        restWarmedAuthzCache.asMap().keySet().removeIf(k -> usernames.test(k.v2()));
+        transportWarmedAuthzCache.asMap().keySet().removeIf(k -> usernames.test(k.v2()));
+        pendingPeerLookups.asMap().keySet().removeIf(k -> usernames.test(k.v2().v2()));
+        peerLookupMisses.asMap().keySet().removeIf(k -> usernames.test(k.v2().v2()));
+        authorizedUsers.asMap().keySet().removeIf(u -> usernames.test(u.getName()));
+        connectionUsers.asMap().values().removeIf(t -> usernames.test(t.v2().getName()));
+        effectivePermissionsCache.asMap().keySet().removeIf(k -> usernames.test(k.name));
+        refreshStates.asMap().keySet().removeIf(u -> usernames.test(u.getName()));
+    }
+    
+    /**
+     * @return the names (and aliases) of all users of the internalusers configuration
+     */
+    private static Set<String> getConfiguredUsers(final Settings internalUsers) {
+        final Set<String> users = new HashSet<String>();
+        
+        for(final String key: internalUsers.keySet()) {
+            if(key.endsWith(".hash")) {
+                final String user = key.substring(0, key.length() - ".hash".length());
+                users.add(user);
+                
+                if(internalUsers.get(user + ".username") != null) {
+                    users.add(internalUsers.get(user + ".username"));
+                }
+            }
+        }
+        
+        return users;
+    }
+    
+    /**
+     * @return the names (and aliases) of all users which were added, removed or modified
+     */
+    private static Set<String> getChangedUsers(final Settings previous, final Settings current) {
+        final Set<String> users = new HashSet<String>();
+        
+        for(final Settings cfg: new Settings[] {previous, current}) {
+            for(final String key: cfg.keySet()) {
+                if(key.endsWith(".hash")) {
+                    users.add(key.substring(0, key.length() - ".hash".length()));
+                }
+            }
+        }
+        
+        final Set<String> changedUsers = new HashSet<String>();
+        
+        for(final String user: users) {
+            final Settings previousUser = previous.getByPrefix(user + ".");
+            final Settings currentUser = current.getByPrefix(user + ".");
+            
+            if(!previousUser.equals(currentUser)) {
+                changedUsers.add(user);
+                
+                if(previousUser.get("username") != null) {
+                    changedUsers.add(previousUser.get("username"));
+                }
+                
+                if(currentUser.get("username") != null) {
+                    changedUsers.add(currentUser.get("username"));
+                }
+            }
+        }
+        
+        return changedUsers;
+    }
+    
+    /**
+     * @return node local statistics, e.g. size and hit rate of the user caches
+     */
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> caches = new LinkedHashMap<String, Object>();
+        caches.put("user_cache", cacheStatistics(userCache));
+        caches.put("user_cache_transport", cacheStatistics(userCacheTransport));
+        caches.put("authenticated_user_cache_transport", cacheStatistics(authenticatedUserCacheTransport));
+        caches.put("rest_impersonation_cache", cacheStatistics(restImpersonationCache));
+        caches.put("rest_authz_cache", cacheStatistics(restAuthzCache, authzCacheMaxSize));
+        caches.put("transport_authz_cache", cacheStatistics(transportAuthzCache, authzCacheMaxSize));
+        caches.put("negative_cache", cacheStatistics(negativeCache));
+        caches.put("connection_user_cache", cacheStatistics(connectionUsers));
+        caches.put("http_connection_binding", Collections.singletonMap("hit_count", httpConnectionBindingHitCount.sum()));
+        
+        final Map<String, Object> failures = new LinkedHashMap<String, Object>();
+        failures.put("failed_authentication_count", failedAuthenticationCount.sum());
+        failures.put("negative_cache_hit_count", negativeCacheHitCount.sum());
+        
+        final Map<String, Object> rateLimits = new LinkedHashMap<String, Object>();
+        rateLimits.put("ip", ipRateLimiter.getStatistics());
+        rateLimits.put("username", usernameRateLimiter.getStatistics());
+        
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("caches", caches);
+        statistics.put("failures", failures);
+        statistics.put("rate_limits", rateLimits);
+        statistics.put("auth_domains", getAuthDomainStatistics());
+        
+        final Map<String, Object> sessionTokens = new LinkedHashMap<String, Object>();
+        sessionTokens.put("enabled", authConfig.sessionTokenAuthenticator != null);
+        sessionTokens.put("issued_count", sessionTokenIssuedCount.sum());
+        sessionTokens.put("authenticated_count", sessionTokenAuthenticatedCount.sum());
+        statistics.put("session_tokens", sessionTokens);
+        
+        final Map<String, Object> peerLookup = new LinkedHashMap<String, Object>();
+        peerLookup.put("enabled", peerLookupEnabled);
+        peerLookup.put("hit_count", peerLookupHitCount.sum());
+        peerLookup.put("miss_count", peerLookupMissCount.sum());
+        peerLookup.put("failure_count", peerLookupFailureCount.sum());
+        peerLookup.put("served_count", peerLookupServedCount.sum());
+        statistics.put("authz_peer_lookup", peerLookup);
+        
+        if(cacheWarmer != null) {
+            statistics.put("warmup", cacheWarmer.getStatistics());
+        }
+        statistics.put("bcrypt", iab.getStatistics());
+        return statistics;
+    }
+    
+    /**
+     * @return state, fault counters and latency histogram of the circuit breaker of each auth domain
+     */
+    public Map<String, Object> getAuthDomainStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        final AuthConfig authConfig = this.authConfig;
+        
+        for(final Set<AuthDomain> authDomains: Arrays.asList(authConfig.restAuthDomains, authConfig.transportAuthDomains)) {
+            for(final AuthDomain authDomain: authDomains) {
+                final Map<String, Object> domainStatistics = new LinkedHashMap<String, Object>(authDomain.getCircuitBreaker().getStatistics());
+                domainStatistics.put("authenticated_count", authDomain.getAuthenticatedCount());
+                domainStatistics.put("skipped_count", authDomain.getSkippedCount());
+                statistics.put(authDomain.getName(), domainStatistics);
+            }
+        }
+        
+        return statistics;
+    }
+    
+    /**
+     * Aggregate for the unauthenticated health check, which must not reveal the configured auth domains.
+     * The state of each auth domain is part of {@link #getAuthDomainStatistics()}.
+     * 
+     * @return UP if all circuit breakers are closed, DOWN if none is closed, DEGRADED otherwise
+     */
+    public String getAuthDomainsStatus() {
+        final AuthConfig authConfig = this.authConfig;
+        int count = 0;
+        int unavailable = 0;
+        
+        for(final Set<AuthDomain> authDomains: Arrays.asList(authConfig.restAuthDomains, authConfig.transportAuthDomains)) {
+            for(final AuthDomain authDomain: authDomains) {
+                count++;
+                if(authDomain.getCircuitBreaker().getState() != AuthDomainCircuitBreaker.State.CLOSED) {
+                    unavailable++;
+                }
+            }
+        }
+        
+        return unavailable == 0 ? "UP" : unavailable == count ? "DOWN" : "DEGRADED";
+    }
+    
+    private Map<String, Object> cacheStatistics(final Cache<?, ?> cache) {
+        return cacheStatistics(cache, cacheMaxSize);
+    }
+    
+    private Map<String, Object> cacheStatistics(final Cache<?, ?> cache, final long maxSize) {
+        final CacheStats stats = cache.stats();
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("size", cache.size());
+        result.put("max_size", maxSize);
+        result.put("hit_count", stats.hitCount());
+        result.put("miss_count", stats.missCount());
+        result.put("hit_rate", stats.hitRate());
+        result.put("eviction_count", stats.evictionCount());
+        result.put("load_success_count", stats.loadSuccessCount());
+        result.put("load_exception_count", stats.loadExceptionCount());
+        result.put("average_load_penalty_ms", stats.averageLoadPenalty() / 1000000d);
+        return result;
+    }
+    
+    /**
+     * Attach the effective permissions slot of this user session to the current thread context.
+     * The permissions itself are computed lazily by the PrivilegesEvaluator. They are shared by all users with the same
+     * name, roles and attributes for the same sg_config version.
+     */
+    public void attachEffectivePermissions(final User user) {
+        if(user == null) {
+            return;
+        }
+        
+        final ThreadContext threadContext = threadPool.getThreadContext();
+        
+        if(threadContext.getTransient(ConfigConstants.SG_EFFECTIVE_PERMISSIONS) == null) {
+            threadContext.putTransient(ConfigConstants.SG_EFFECTIVE_PERMISSIONS, 
+                    effectivePermissionsCache.asMap().computeIfAbsent(new SessionKey(user, configVersion), k -> new EffectivePermissions.Holder()));
+        }
     }
 
     @Override
     public void onChange(final Settings settings) {
         
-        //TODO synchronize via semaphore/atomicref
-        restAuthDomains.clear();
-        transportAuthDomains.clear();
-        restAuthorizers.clear();
-        transportAuthorizers.clear();
-        invalidateCache();
-        anonymousAuthEnabled = settings.getAsBoolean("searchguard.dynamic.http.anonymous_auth_enabled", false);
+        //build the new auth config off to the side, requests keep using the current one until it is published
+        final SortedSet<AuthDomain> restAuthDomains = new TreeSet<AuthDomain>();
+        final Set<AuthorizationBackend> restAuthorizers = new HashSet<AuthorizationBackend>();
+        final SortedSet<AuthDomain> transportAuthDomains = new TreeSet<AuthDomain>();
+        final Set<AuthorizationBackend> transportAuthorizers = new HashSet<AuthorizationBackend>();
+        final boolean anonymousAuthEnabled = settings.getAsBoolean("searchguard.dynamic.http.anonymous_auth_enabled", false);
+        final HTTPSessionTokenAuthenticator sessionTokenAuthenticator = newSessionTokenAuthenticator(settings);
+        
+        if(sessionTokenAuthenticator != null && Strings.isNullOrEmpty(settings.get("searchguard.dynamic.http.session_token.signing_key"))) {
+            log.warn("No searchguard.dynamic.http.session_token.signing_key configured, session tokens are only valid on the issuing node");
+        }
         
         final Map<String, Settings> authzDyn = settings.getGroups("searchguard.dynamic.authz");
         
@@ -235,8 +712,10 @@ public class BackendRegistry implements ConfigurationChangeListener {
                     HTTPAuthenticator httpAuthenticator = httpAuthenticatorType==null?null:  (HTTPAuthenticator) newInstance(httpAuthenticatorType,"h",
                             Settings.builder().put(esSettings).put(ads.getAsSettings("http_authenticator.config")).build(), configPath);
                     
-                    final AuthDomain _ad = new AuthDomain(authenticationBackend, httpAuthenticator,
-                            ads.getAsBoolean("http_authenticator.challenge", true), ads.getAsInt("order", 0));
+                    final AuthDomain _ad = new AuthDomain(ad, authenticationBackend, httpAuthenticator,
+                            ads.getAsBoolean("http_authenticator.challenge", true), ads.getAsInt("order", 0),
+                            new AuthDomainCircuitBreaker(ad, ads, ads.getAsLong("timeout_ms", 0L) > 0 ? 
+                                    threadPool.executor(ConfigConstants.SG_AUTH_BACKEND_THREAD_POOL_NAME) : null));
                     
                     if (httpEnabled && _ad.getHttpAuthenticator() != null) {
                         restAuthDomains.add(_ad);
@@ -253,11 +732,87 @@ public class BackendRegistry implements ConfigurationChangeListener {
         }
         
         //SG6 no default authc
-        initialized = !restAuthDomains.isEmpty() || anonymousAuthEnabled;
+        final boolean initialized = !restAuthDomains.isEmpty() || anonymousAuthEnabled;
+        
+        //roles cached by other nodes are only used if they were loaded with the same config
+        configVersion = Hashing.murmur3_128().hashString(settings.toString(), StandardCharsets.UTF_8).asLong();
+        
+        authConfig = new AuthConfig(restAuthDomains, restAuthorizers, transportAuthDomains, transportAuthorizers, anonymousAuthEnabled, initialized, 
+                sessionTokenAuthenticator);
+        
+        //cached users only need to be flushed if the auth domains really changed
+        if(!settings.equals(lastConfig)) {
+            invalidateCache();
+        }
+        
+        lastConfig = settings;
+        warmUp(authConfig);
+    }
+    
+    /**
+     * @param config the sg_config
+     * @return a session token authenticator with a signing key derived from the sg_config and the current
+     * internalusers, roles, rolesmapping and actiongroups, null if session tokens are disabled
+     */
+    private HTTPSessionTokenAuthenticator newSessionTokenAuthenticator(final Settings config) {
+        final Settings sessionTokenSettings = config.getAsSettings("searchguard.dynamic.http.session_token");
+        
+        if(!sessionTokenSettings.getAsBoolean("enabled", false)) {
+            return null;
+        }
+        
+        final Map<String, Settings> configs = new HashMap<String, Settings>();
+        
+        if(configurationRepository != null) {
+            configs.putAll(configurationRepository.getConfiguration(ConfigConstants.CONFIG_NAMES));
+        }
+        
+        configs.put(ConfigConstants.CONFIGNAME_CONFIG, config);
+        return new HTTPSessionTokenAuthenticator(sessionTokenSettings, 
+                HTTPSessionTokenAuthenticator.deriveSigningKey(sessionTokenSettings.get("signing_key"), configs));
     }
 
+    /**
+     * Like {@link #authenticate(TransportRequest, String, Task, String)} but a user which authenticated only with its
+     * certificate (no credentials, no impersonation) is bound to the connection and reused for subsequent requests on it.
+     * The TLS peer of a connection can not change, the binding ends when the connection is closed or the configuration changes.
+     * 
+     * @param connection the low level transport connection, if null the user is not bound
+     */
+    public User authenticate(final TransportRequest request, final String sslPrincipal, final Task task, final String action, final Object connection) {
+        
+        final boolean certificateOnly = connection != null 
+                && Strings.isNullOrEmpty(threadPool.getThreadContext().getHeader("Authorization"))
+                && Strings.isNullOrEmpty(threadPool.getThreadContext().getHeader("sg_impersonate_as"));
+        
+        if(certificateOnly) {
+            final Tuple<String, User> bound = connectionUsers.getIfPresent(connection);
+            
+            if(bound != null && bound.v1().equals(sslPrincipal)) {
+                return bound.v2();
+            }
+        }
+        
+        final User user = authenticate(request, sslPrincipal, task, action);
+        
+        if(certificateOnly && user != null) {
+            
+            if(log.isDebugEnabled()) {
+                log.debug("Bind user {} to transport connection {}", user.getName(), connection);
+            }
+            
+            if(connectionUsers.asMap().put(connection, new Tuple<String, User>(sslPrincipal, user)) == null 
+                    && connection instanceof Channel) {
+                ((Channel) connection).closeFuture().addListener(f -> connectionUsers.invalidate(connection));
+            }
+        }
+        
+        return user;
+    }
+    
     public User authenticate(final TransportRequest request, final String sslPrincipal, final Task task, final String action) {
         
+        final AuthConfig authConfig = this.authConfig;
         final User origPKIUser = new User(sslPrincipal);        
         if(adminDns.isAdmin(origPKIUser.getName())) {
             auditLog.logSucceededLogin(origPKIUser.getName(), true, null, request, action, task);
@@ -271,14 +826,22 @@ public class BackendRegistry implements ConfigurationChangeListener {
         
         User impersonatedTransportUser = null;
         
+        final String remoteIp = request.remoteAddress() == null ? null : request.remoteAddress().getAddress();
+        
         if(creds != null) {
             if(log.isDebugEnabled())  {
                 log.debug("User {} submitted also basic credentials: {}", origPKIUser.getName(), creds);
             }
+            
+            if(ipRateLimiter.isBlocked(remoteIp) || usernameRateLimiter.isBlocked(usernameClient(creds.getUsername(), remoteIp))) {
+                log.warn("Transport authentication of {} from {} rejected due to too many failed attempts", creds.getUsername(), remoteIp);
+                auditLog.logFailedLogin(creds.getUsername(), false, null, request, task);
+                throw new ElasticsearchSecurityException("Too many failed authentication attempts, try again later", RestStatus.TOO_MANY_REQUESTS);
+            }
         }
         
         //loop over all transport auth domains
-        for (final AuthDomain authDomain: transportAuthDomains) {
+        for (final AuthDomain authDomain: authConfig.transportAuthDomains) {
 
             User authenticatedUser = null;
             
@@ -286,11 +849,11 @@ public class BackendRegistry implements ConfigurationChangeListener {
                 //no credentials submitted
                 //impersonation possible
                 impersonatedTransportUser = impersonate(request, origPKIUser);
-                authenticatedUser = checkExistsAndAuthz(userCacheTransport, impersonatedTransportUser==null?origPKIUser:impersonatedTransportUser, authDomain, transportAuthorizers);
+                authenticatedUser = checkExistsAndAuthz(userCacheTransport, impersonatedTransportUser==null?origPKIUser:impersonatedTransportUser, authDomain, authConfig.transportAuthorizers);
             } else {
                  //auth credentials submitted
                 //impersonation not possible, if requested it will be ignored
-                authenticatedUser = authcz(authenticatedUserCacheTransport, creds, authDomain, transportAuthorizers);
+                authenticatedUser = authcz(authenticatedUserCacheTransport, transportAuthzCache, creds, authDomain, authConfig.transportAuthorizers);
             }
             
             if(authenticatedUser == null) {
@@ -311,7 +874,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
             }
             
             auditLog.logSucceededLogin(authenticatedUser.getName(), false, impersonatedTransportUser==null?null:origPKIUser.getName(), request, action, task);
-            
+            authDomain.onAuthenticated();
             return authenticatedUser;            
         }//end looping auth domains
         
@@ -320,6 +883,8 @@ public class BackendRegistry implements ConfigurationChangeListener {
         if(creds == null) {
             auditLog.logFailedLogin(impersonatedTransportUser==null?origPKIUser.getName():impersonatedTransportUser.getName(), false, impersonatedTransportUser==null?null:origPKIUser.getName(), request, task);
         } else {
+            ipRateLimiter.onFailure(remoteIp);
+            usernameRateLimiter.onFailure(usernameClient(creds.getUsername(), remoteIp));
             auditLog.logFailedLogin(creds.getUsername(), false, null, request, task);
         }
         
@@ -338,6 +903,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
      */
     public boolean authenticate(final RestRequest request, final RestChannel channel, final ThreadContext threadContext) {
 
+        final AuthConfig authConfig = this.authConfig;
         final String sslPrincipal = (String) threadPool.getThreadContext().getTransient(ConfigConstants.SG_SSL_PRINCIPAL);
 
         if(adminDns.isAdmin(sslPrincipal)) {
@@ -347,16 +913,57 @@ public class BackendRegistry implements ConfigurationChangeListener {
             return true;
         }
         
-        if (!isInitialized()) {
+        if (!authConfig.initialized) {
             log.error("Not yet initialized (you may need to run sgadmin)");
             channel.sendResponse(new BytesRestResponse(RestStatus.SERVICE_UNAVAILABLE, "Search Guard not initialized (SG11). See http://docs.search-guard.com/v6/sgadmin"));
             return false;
         }
         
-        threadContext.putTransient(ConfigConstants.SG_REMOTE_ADDRESS, xffResolver.resolve(request));
+        final TransportAddress remoteAddress = xffResolver.resolve(request);
+        threadContext.putTransient(ConfigConstants.SG_REMOTE_ADDRESS, remoteAddress);
+        
+        final String remoteIp = remoteAddress == null ? null : remoteAddress.getAddress();
+        
+        if(ipRateLimiter.isBlocked(remoteIp)) {
+            log.warn("Authentication from {} rejected due to too many failed attempts", remoteIp);
+            channel.sendResponse(new BytesRestResponse(RestStatus.TOO_MANY_REQUESTS, "Too many failed authentication attempts, try again later"));
+            return false;
+        }
+        
+        final HTTPSessionTokenAuthenticator sessionTokenAuthenticator = authConfig.sessionTokenAuthenticator;
+        
+        if(sessionTokenAuthenticator != null 
+                && authenticateSessionToken(sessionTokenAuthenticator, request, threadContext, authConfig) != null) {
+            return true;
+        }
+        
+        //keep-alive clients send the same authorization header again, skip decoding and hashing of the credentials
+        final Channel httpChannel = request instanceof Netty4HttpRequest ? ((Netty4HttpRequest) request).getChannel() : null;
+        final String authorizationHeader = request.header("Authorization");
+        
+        if(httpChannel != null && !Strings.isNullOrEmpty(authorizationHeader)) {
+            final HttpConnectionBinding binding = httpChannel.attr(HTTP_CONNECTION_BINDING).get();
+            
+            if(binding != null 
+                    && binding.generation == cacheGeneration.get()
+                    && System.nanoTime() - binding.boundAt < httpConnectionBindingTtlNanos
+                    && authorizationHeader.equals(binding.authorizationHeader)) {
+                
+                if(log.isDebugEnabled()) {
+                    log.debug("Reuse user {} authenticated before on this http connection", binding.user.getName());
+                }
+                
+                httpConnectionBindingHitCount.increment();
+                binding.authDomain.onAuthenticated();
+                onAuthenticated(request, threadContext, binding.authDomain, binding.user, authConfig);
+                return true;
+            }
+        }
         
         boolean authenticated = false;
         
+        final long generation = cacheGeneration.get();
+        
         User authenticatedUser = null;
         
         AuthCredentials authCredenetials = null;
@@ -364,7 +971,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
         HTTPAuthenticator firstChallengingHttpAuthenticator = null;
         
         //loop over all http/rest auth domains
-        for (final AuthDomain authDomain: restAuthDomains) {
+        for (final AuthDomain authDomain: authConfig.restAuthDomains) {
             
             final HTTPAuthenticator httpAuthenticator = authDomain.getHttpAuthenticator();
             
@@ -377,7 +984,13 @@ public class BackendRegistry implements ConfigurationChangeListener {
             }
             final AuthCredentials ac;
             try {
-                ac = httpAuthenticator.extractCredentials(request, threadContext);
+                if(authConfig.canHaveCredentials(authDomain, request, threadContext)) {
+                    ac = httpAuthenticator.extractCredentials(request, threadContext);
+                } else {
+                    //same as if the authenticator did not find credentials, but without calling it
+                    authDomain.onSkipped();
+                    ac = null;
+                }
             } catch (Exception e1) {
                 if(log.isDebugEnabled()) {
                     log.debug("'{}' extracting credentials from {} http authenticator", e1.toString(), httpAuthenticator.getType(), e1);    
@@ -388,7 +1001,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
             
             if (ac == null) {
                 //no credentials found in request
-                if(anonymousAuthEnabled) {
+                if(authConfig.anonymousAuthEnabled) {
                     continue;
                 }
                         
@@ -413,7 +1026,14 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
             //http completed
             
-            authenticatedUser = authcz(userCache, ac, authDomain, restAuthorizers);
+            if(usernameRateLimiter.isBlocked(usernameClient(ac.getUsername(), remoteIp))) {
+                log.warn("Authentication of {} rejected due to too many failed attempts", ac.getUsername());
+                auditLog.logFailedLogin(ac.getUsername(), false, null, request);
+                channel.sendResponse(new BytesRestResponse(RestStatus.TOO_MANY_REQUESTS, "Too many failed authentication attempts, try again later"));
+                return false;
+            }
+            
+            authenticatedUser = authcz(userCache, restAuthzCache, ac, authDomain, authConfig.restAuthorizers);
      
             if(authenticatedUser == null) {
                 if(log.isDebugEnabled()) {
@@ -429,18 +1049,20 @@ public class BackendRegistry implements ConfigurationChangeListener {
                 return false;
             }
             
-            final String tenant = Utils.coalesce(request.header("sgtenant"), request.header("sg_tenant"));
+            if(httpChannel != null && httpAuthenticator instanceof HTTPBasicAuthenticator 
+                    && !Strings.isNullOrEmpty(authorizationHeader)) {
+                httpChannel.attr(HTTP_CONNECTION_BINDING).set(new HttpConnectionBinding(authorizationHeader, authDomain, authenticatedUser, generation));
+            }
             
-            if(log.isDebugEnabled()) {
-                log.debug("User '{}' is authenticated", authenticatedUser);
-                log.debug("sgtenant '{}'", tenant);
+            authDomain.onAuthenticated();
+            onAuthenticated(request, threadContext, authDomain, authenticatedUser, authConfig);
+            
+            if(sessionTokenAuthenticator != null && sessionTokenAuthenticator.shouldIssue(request)) {
+                threadContext.addResponseHeader(sessionTokenAuthenticator.getHeader(), 
+                        sessionTokenAuthenticator.issue(authenticatedUser, authDomain));
+                sessionTokenIssuedCount.increment();
             }
-
-            authenticatedUser.setRequestedTenant(tenant);
-            final User impersonatedUser = impersonate(request, authenticatedUser, authDomain);
-            threadContext.putTransient(ConfigConstants.SG_USER, impersonatedUser==null?authenticatedUser:impersonatedUser);
             
-            auditLog.logSucceededLogin((impersonatedUser==null?authenticatedUser:impersonatedUser).getName(), false, authenticatedUser.getName(), request);
             authenticated = true;
             break;
         }//end looping auth domains
@@ -448,11 +1070,12 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
         if(!authenticated) {        
             if(log.isDebugEnabled()) {
-                log.debug("User still not authenticated after checking {} auth domains", restAuthDomains.size());
+                log.debug("User still not authenticated after checking {} auth domains", authConfig.restAuthDomains.size());
             }
             
-            if(authCredenetials == null && anonymousAuthEnabled) {
+            if(authCredenetials == null && authConfig.anonymousAuthEnabled) {
             	threadContext.putTransient(ConfigConstants.SG_USER, User.ANONYMOUS);
+            	attachEffectivePermissions(User.ANONYMOUS);
             	auditLog.logSucceededLogin(User.ANONYMOUS.getName(), false, null, request);
                 if(log.isDebugEnabled()) {
                     log.debug("Anonymous User is authenticated");
@@ -460,6 +1083,11 @@ public class BackendRegistry implements ConfigurationChangeListener {
                 return true;
             }
             
+            if(authCredenetials != null) {
+                ipRateLimiter.onFailure(remoteIp);
+                usernameRateLimiter.onFailure(usernameClient(authCredenetials.getUsername(), remoteIp));
+            }
+            
             if(firstChallengingHttpAuthenticator != null) {
                 
                 if(log.isDebugEnabled()) {
@@ -500,13 +1128,13 @@ public class BackendRegistry implements ConfigurationChangeListener {
         }
 
         try {
-            return cache.get(user.getName(), new Callable<User>() {
+            final User cachedUser = cache.get(user.getName(), new Callable<User>() {
                 @Override
                 public User call() throws Exception {
                     if(log.isDebugEnabled()) {
                         log.debug(user.getName()+" not cached, return from "+authDomain.getBackend().getType()+" backend directly");
                     }
-                    if(authDomain.getBackend().exists(user)) {
+                    if(authDomain.getCircuitBreaker().call(() -> authDomain.getBackend().exists(user))) {
                         for (final AuthorizationBackend ab : authorizers) {
                             try {
                                 ab.fillRoles(user, new AuthCredentials(user.getName()));
@@ -514,6 +1142,25 @@ public class BackendRegistry implements ConfigurationChangeListener {
                                 log.error("Cannot retrieve roles for {} from {} due to {}", user.getName(), ab.getType(), e.toString(), e);
                             }
                         }
+                    
+                    if(refreshAfterWriteNanos > 0) {
+                        refreshStates.put(user, new RefreshState(new Callable<User>() {
+                            @Override
+                            public User call() throws Exception {
+                                final User refreshedUser = new User(user.getName());
+                                //the refresh must not keep calling a backend which is down
+                                return authDomain.getCircuitBreaker().call(() -> {
+                                    if(!authDomain.getBackend().exists(refreshedUser)) {
+                                        return null;
+                                    }
+                                    for (final AuthorizationBackend ab : authorizers) {
+                                        ab.fillRoles(refreshedUser, new AuthCredentials(refreshedUser.getName()));
+                                    }
+                                    return refreshedUser;
+                                });
+                            }
+                        }));
+                    }
                         
                     return user;
                     
@@ -525,6 +1172,9 @@ public class BackendRegistry implements ConfigurationChangeListener {
                     return null;
                 }
             });
+            
+            refreshIfStale(cache, user.getName(), cachedUser, refreshAfterWriteNanos);
+            return cachedUser;
         } catch (Exception e) {
             if(log.isDebugEnabled()) {
                 log.debug("Can not check and authorize "+user.getName()+" due to "+e.toString(), e);
@@ -532,48 +1182,629 @@ public class BackendRegistry implements ConfigurationChangeListener {
             return null;
         }
     }
+    /**
+     * The username rate limiter counts the failures of a username per remote address, so nobody can lock a user out
+     * from other addresses by sending wrong passwords for it
+     * 
+     * @return username and remote address as rate limiter client, null if there is no username
+     */
+    private static String usernameClient(final String username, final String remoteIp) {
+        if(username == null) {
+            return null;
+        }
+        //the address is appended last and never contains an @, so usernames with an @ cannot collide
+        return remoteIp == null ? username : username + "@" + remoteIp;
+    }
+    
+    /**
+     * Verify a session token issued by this (or another) node for the current sg_config
+     * 
+     * @return the user of a valid token (already put into the thread context), null if the request has no valid token
+     */
+    private User authenticateSessionToken(final HTTPSessionTokenAuthenticator sessionTokenAuthenticator, final RestRequest request, 
+            final ThreadContext threadContext, final AuthConfig authConfig) {
+        
+        final AuthCredentials tokenCredentials = sessionTokenAuthenticator.extractCredentials(request, threadContext);
+        
+        if(tokenCredentials == null) {
+            return null;
+        }
+        
+        final String authDomainName = tokenCredentials.getAttributes().get(HTTPSessionTokenAuthenticator.AUTH_DOMAIN_ATTRIBUTE);
+        final String authDomainOrder = tokenCredentials.getAttributes().get(HTTPSessionTokenAuthenticator.AUTH_DOMAIN_ORDER_ATTRIBUTE);
+        
+        for(final AuthDomain authDomain: authConfig.restAuthDomains) {
+            if(authDomain.getName().equals(authDomainName) && String.valueOf(authDomain.getOrder()).equals(authDomainOrder)) {
+                final User tokenUser = new User(tokenCredentials.getUsername(), tokenCredentials.getBackendRoles(), tokenCredentials);
+                tokenUser.getCustomAttributesMap().remove(HTTPSessionTokenAuthenticator.AUTH_DOMAIN_ATTRIBUTE);
+                tokenUser.getCustomAttributesMap().remove(HTTPSessionTokenAuthenticator.AUTH_DOMAIN_ORDER_ATTRIBUTE);
+                
+                if(log.isDebugEnabled()) {
+                    log.debug("User {} authenticated by a session token", tokenUser.getName());
+                }
+                
+                sessionTokenAuthenticatedCount.increment();
+                authDomain.onAuthenticated();
+                onAuthenticated(request, threadContext, authDomain, tokenUser, authConfig);
+                return tokenUser;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Apply the requested tenant and impersonation and put the user into the thread context
+     */
+    private void onAuthenticated(final RestRequest request, final ThreadContext threadContext, final AuthDomain authDomain, 
+            final User authenticatedUser, final AuthConfig authConfig) {
+        
+        final String tenant = Utils.coalesce(request.header("sgtenant"), request.header("sg_tenant"));
+        
+        if(log.isDebugEnabled()) {
+            log.debug("User '{}' is authenticated", authenticatedUser);
+            log.debug("sgtenant '{}'", tenant);
+        }
+
+        authenticatedUser.setRequestedTenant(tenant);
+        final User impersonatedUser = impersonate(request, authenticatedUser, authDomain, authConfig.restAuthorizers);
+        threadContext.putTransient(ConfigConstants.SG_USER, impersonatedUser==null?authenticatedUser:impersonatedUser);
+        attachEffectivePermissions(impersonatedUser==null?authenticatedUser:impersonatedUser);
+        
+        auditLog.logSucceededLogin((impersonatedUser==null?authenticatedUser:impersonatedUser).getName(), false, authenticatedUser.getName(), request);
+    }
+    
     /**
      * no auditlog, throw no exception, does also authz for all authorizers
+     * <p>
+     * The authentication result is cached by credentials, the result of the authorizers by username with its own ttl.
+     * If only one of both expired only that step is repeated.
      * 
      * @param cache
+     * @param authzCache
      * @param ac
      * @param authDomain
      * @return null if user cannot b authenticated
      */
-    private User authcz(final Cache<AuthCredentials, User> cache, final AuthCredentials ac, final AuthDomain authDomain, final Set<AuthorizationBackend> authorizers) {
+    private User authcz(final Cache<AuthCredentials, User> cache, final Cache<Tuple<String, String>, User> authzCache, final AuthCredentials ac, final AuthDomain authDomain, final Set<AuthorizationBackend> authorizers) {
         if(ac == null) {
             return null;
         }
+        
+        final Tuple<AuthDomain, AuthCredentials> negativeKey = negativeTtlInSec > 0 && hasPassword(ac) ? new Tuple<AuthDomain, AuthCredentials>(authDomain, ac) : null;
+        
+        if(negativeKey != null) {
+            final LongAdder repeated = negativeCache.getIfPresent(negativeKey);
+            
+            if(repeated != null) {
+                repeated.increment();
+                negativeCacheHitCount.increment();
+                ac.clearSecrets();
+                
+                if(log.isDebugEnabled()) {
+                    log.debug("Credentials of {} recently failed for {} backend, reject without asking the backend again", ac.getUsername(), authDomain.getBackend().getType());
+                }
+                return null;
+            }
+        }
 
+        final Callable<User> authenticator = new Callable<User>() {
+            @Override
+            public User call() throws Exception {
+                if(log.isDebugEnabled()) {
+                    log.debug(ac.getUsername()+" not cached, return from "+authDomain.getBackend().getType()+" backend directly");
+                }
+                return authDomain.getCircuitBreaker().call(() -> authDomain.getBackend().authenticate(ac));
+            }
+        };
+        
+        if(!authorizers.isEmpty()) {
+            //runs while the credentials are verified, the authz load picks the result up if it arrived until then
+            startPeerLookup(authzCache == restAuthzCache, authzCache, authzKey(authDomain.getName(), ac.getUsername()));
+        }
+        
         try {
-            return cache.get(ac, new Callable<User>() {
-                @Override
-                public User call() throws Exception {
+            final User cachedUser;
+            
+            try {
+                cachedUser = cache.get(ac, authenticator);
+            } catch (Exception e) {
+                handleAuthczFailure(ac, e);
+                
+                //only a definitive rejection of the credentials, timeouts, unavailable or failing backends say nothing about them
+                if(negativeKey != null && isWrongCredentials(e)) {
+                    negativeCache.put(negativeKey, new LongAdder());
+                }
+                return null;
+            }
+            
+            try {
+                final User authorizedUser = authorize(authzCache, authDomain, cachedUser, ac, authorizers);
+                
+                if(cacheWarmer != null) {
+                    //remembered under the authz key, the warm-up loads the roles for it after a restart
+                    cacheWarmer.onAuthenticated(authzCache == restAuthzCache, authDomain.getName(), ac.getUsername());
+                }
+                return authorizedUser;
+            } catch (Exception e) {
+                handleAuthczFailure(ac, e);
+                return null;
+            }
+        } finally {
+            ac.clearSecrets();
+        }
+    }
+    
+    private void handleAuthczFailure(final AuthCredentials ac, final Exception e) {
+        final ElasticsearchSecurityException rejected = getTooManyRequestsException(e);
+        
+        if(rejected != null) {
+            log.warn("Authentication of {} rejected: {}", ac.getUsername(), rejected.getMessage());
+            throw rejected;
+        }
+        
+        failedAuthenticationCount.increment();
+        
+        if(log.isDebugEnabled()) {
+            log.debug("Can not authenticate "+ac.getUsername()+" due to "+e.toString(), e);
+        }
+    }
+    
+    /**
+     * @return true if the authentication backend rejected the credentials itself (ElasticsearchSecurityException with 401),
+     *         e.g. the password does not match or the user does not exist
+     */
+    private static boolean isWrongCredentials(final Throwable e) {
+        Throwable cause = e;
+        
+        while(cause != null) {
+            if(cause instanceof ElasticsearchSecurityException 
+                    && ((ElasticsearchSecurityException) cause).status() == RestStatus.UNAUTHORIZED) {
+                return !AuthDomainCircuitBreaker.isBackendFault(cause);
+            }
+            cause = cause.getCause();
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Only password based credentials are remembered in the negative cache, native credentials (like GSS tokens) 
+     * are not part of the equality of AuthCredentials
+     */
+    private static boolean hasPassword(final AuthCredentials ac) {
+        final byte[] password = ac.getPassword();
+        
+        if(password == null) {
+            return false;
+        }
+        
+        Arrays.fill(password, (byte) 0);
+        return ac.getNativeCredentials() == null;
+    }
+
+    /**
+     * @return the cause if the backend rejected the authentication because of overload (429), null otherwise
+     */
+    private static ElasticsearchSecurityException getTooManyRequestsException(final Throwable e) {
+        Throwable cause = e;
+        
+        while(cause != null) {
+            if(cause instanceof ElasticsearchSecurityException 
+                    && ((ElasticsearchSecurityException) cause).status() == RestStatus.TOO_MANY_REQUESTS) {
+                return (ElasticsearchSecurityException) cause;
+            }
+            cause = cause.getCause();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Combine the (cached) authentication result with the (cached) roles and attributes of the authorizers.
+     * The authenticated user is shared by all requests with the same credentials and is never modified, the 
+     * authorized user is a new instance which is completely built before it is published. As long as the authz result 
+     * is unchanged the same authorized user is returned, so the caches keyed by the user instance stay valid.
+     * 
+     * @return the authorized user
+     */
+    private User authorize(final Cache<Tuple<String, String>, User> authzCache, final AuthDomain authDomain, final User authenticatedUser, 
+            final AuthCredentials credentials, final Set<AuthorizationBackend> authorizers) throws ExecutionException {
+        
+        if(authorizers.isEmpty()) {
+            return authenticatedUser;
+        }
+        
+        final User authzResult = getAuthzResult(authzCache, authDomain.getName(), authenticatedUser, credentials, authorizers);
+        final Tuple<User, User> applied = authorizedUsers.getIfPresent(authenticatedUser);
+        
+        if(applied != null && applied.v1() == authzResult) {
+            return applied.v2();
+        }
+        
+        final User authorizedUser = copyOf(authenticatedUser);
+        authorizedUser.addRoles(authzResult.getRoles());
+        authorizedUser.getCustomAttributesMap().putAll(authzResult.getCustomAttributesMap());
+        //concurrent requests might build an equal user, the last one wins
+        authorizedUsers.put(authenticatedUser, new Tuple<User, User>(authzResult, authorizedUser));
+        return authorizedUser;
+    }
+    
+    /**
+     * @return a new user with the name, roles and attributes of the given user, which can be modified without
+     *         affecting the (cached and shared) original
+     */
+    private static User copyOf(final User user) {
+        final User copy = new User(user.getName(), user.getRoles(), null);
+        copy.getCustomAttributesMap().putAll(user.getCustomAttributesMap());
+        return copy;
+    }
+    
+    /**
+     * Key of the authz caches, the cache warm-up and the peer lookup. The username of the credentials is used because the
+     * peer lookup starts before the authenticated user (whose name might differ, e.g. for ldap) is known.
+     */
+    private static Tuple<String, String> authzKey(final String authDomain, final String username) {
+        return new Tuple<String, String>(authDomain, username);
+    }
+    
+    /**
+     * @return the cached result of the authorizers for these credentials of this auth domain, loaded if absent.
+     *         On a load the authorizers get a copy of the authenticated user (the cached one is never modified) and the 
+     *         credentials of the request. A result of the cache warm-up is only taken instead if the authenticated user
+     *         has no attributes the authorizers could use.
+     */
+    private User getAuthzResult(final Cache<Tuple<String, String>, User> authzCache, final String authDomain, final User authenticatedUser, 
+            final AuthCredentials credentials, final Set<AuthorizationBackend> authorizers) throws ExecutionException {
+        
+        final String username = authenticatedUser.getName();
+        final Tuple<String, String> key = authzKey(authDomain, credentials.getUsername());
+        
+        final User authzResult = authzCache.get(key, new Callable<User>() {
+            @Override
+            public User call() throws Exception {
+                final User authorizedUser;
+                //a background refresh does not know the credentials, it only passes name, roles and attributes of the user
+                final Set<String> roles = authenticatedUser.getRoles();
+                final Map<String, String> attributes = new HashMap<String, String>(authenticatedUser.getCustomAttributesMap());
+                final User warmedUser = (authzCache == restAuthzCache ? restWarmedAuthzCache : transportWarmedAuthzCache).asMap().remove(key);
+                final Tuple<User, Long> peerResult = takePeerLookupResult(authzCache == restAuthzCache, key);
+                
+                if(warmedUser != null && attributes.isEmpty()) {
+                    //the warm-up passed the same (no) attributes to the authorizers
+                    authorizedUser = warmedUser;
+                } else if(peerResult != null) {
+                    authorizedUser = peerResult.v1();
+                    authzLoadTimes.put(authorizedUser, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(peerResult.v2()));
+                } else {
                     if(log.isDebugEnabled()) {
-                        log.debug(ac.getUsername()+" not cached, return from "+authDomain.getBackend().getType()+" backend directly");
+                        log.debug("Roles of {} not cached, return from authorizers directly", username);
                     }
-                    final User authenticatedUser = authDomain.getBackend().authenticate(ac);
-                    for (final AuthorizationBackend ab : authorizers) {
-                        try {
-                            ab.fillRoles(authenticatedUser, new AuthCredentials(authenticatedUser.getName()));
-                        } catch (Exception e) {
-                            log.error("Cannot retrieve roles for {} from {} due to {}", authenticatedUser, ab.getType(), e.toString(), e);
+                    
+                    authorizedUser = fillRoles(copyOf(authenticatedUser), credentials, authorizers, false);
+                    authzLoadTimes.put(authorizedUser, System.nanoTime());
+                }
+                
+                if(authzRefreshAfterWriteNanos > 0) {
+                    refreshStates.put(authorizedUser, new RefreshState(new Callable<User>() {
+                        @Override
+                        public User call() throws Exception {
+                            final User user = new User(username, roles, null);
+                            user.getCustomAttributesMap().putAll(attributes);
+                            final User refreshedUser = fillRoles(user, new AuthCredentials(username), authorizers, true);
+                            authzLoadTimes.put(refreshedUser, System.nanoTime());
+                            return refreshedUser;
                         }
-                    }
+                    }));
+                }
+                
+                return authorizedUser;
+            }
+        });
+        
+        refreshIfStale(authzCache, key, authzResult, authzRefreshAfterWriteNanos);
+        return authzResult;
+    }
+    
+    /**
+     * Ask a few other nodes (max_nodes, chosen by the hash of the key) in the background for the roles and attributes 
+     * they cached for this user with the same config version, so that after an invalidation not every node has to query
+     * the authorization backends (e.g. LDAP) on its own.
+     * <p/>
+     * Nobody waits for the answer, the authz load takes it only if it arrived in the meantime (see takePeerLookupResult()).
+     * If no peer had a result it is not asked again for this user until max_age_seconds passed or the config version changed.
+     *
+     * @param key auth domain name and username (of the credentials, the authenticated user might have another name)
+     */
+    private void startPeerLookup(final boolean rest, final Cache<Tuple<String, String>, User> authzCache, final Tuple<String, String> key) {
+        
+        if(!peerLookupEnabled || authzCache.asMap().containsKey(key)) {
+            return;
+        }
+        
+        final Tuple<Boolean, Tuple<String, String>> lookupKey = new Tuple<Boolean, Tuple<String, String>>(rest, key);
+        final long configVersion = this.configVersion;
+        final Long missedConfigVersion = peerLookupMisses.getIfPresent(lookupKey);
+        
+        if(missedConfigVersion != null && missedConfigVersion.longValue() == configVersion) {
+            return;
+        }
+        
+        final PlainActionFuture<Tuple<User, Long>> future = PlainActionFuture.newFuture();
+        
+        if(pendingPeerLookups.asMap().putIfAbsent(lookupKey, future) != null) {
+            return;
+        }
+        
+        final AuthzLookupRequest request = new AuthzLookupRequest(key.v1(), key.v2(), rest, configVersion);
+        request.setMaxNodes(peerLookupMaxNodes);
+        request.timeout(peerLookupTimeout);
+        
+        final ActionListener<AuthzLookupResponse> listener = new ActionListener<AuthzLookupResponse>() {
+            @Override
+            public void onResponse(final AuthzLookupResponse response) {
+                final Tuple<User, Long> result = youngestAuthzResult(key.v2(), response);
+                
+                if(result == null) {
+                    peerLookupMisses.put(lookupKey, configVersion);
+                }
+                
+                future.onResponse(result);
+            }
 
-                    return authenticatedUser;
+            @Override
+            public void onFailure(final Exception e) {
+                peerLookupFailureCount.increment();
+                if(log.isDebugEnabled()) {
+                    log.debug("Unable to lookup roles of {} from other nodes due to {}", key.v2(), e.toString());
                 }
-            });
+                future.onResponse(null);
+            }
+        };
+        
+        try (ThreadContext.StoredContext ctx = threadPool.getThreadContext().stashContext()) {
+            client.execute(AuthzLookupAction.INSTANCE, request, listener);
         } catch (Exception e) {
-            if(log.isDebugEnabled()) {
-                log.debug("Can not authenticate "+ac.getUsername()+" due to "+e.toString(), e);
+            listener.onFailure(e);
+        }
+    }
+    
+    /**
+     * @return the result of a peer lookup for this key if it already arrived, null otherwise (never blocks)
+     */
+    private Tuple<User, Long> takePeerLookupResult(final boolean rest, final Tuple<String, String> key) {
+        final PlainActionFuture<Tuple<User, Long>> future = pendingPeerLookups.asMap().remove(new Tuple<Boolean, Tuple<String, String>>(rest, key));
+        
+        if(future == null || !future.isDone()) {
+            return null;
+        }
+        
+        return future.actionGet();
+    }
+    
+    /**
+     * @return the youngest result of a peer which is not older than max_age_seconds together with its age in ms,
+     * null if no peer has one
+     */
+    private Tuple<User, Long> youngestAuthzResult(final String username, final AuthzLookupResponse response) {
+        AuthzLookupNodeResponse youngest = null;
+        
+        for(final AuthzLookupNodeResponse nodeResponse: response.getNodes()) {
+            if(nodeResponse.isFound() 
+                    && nodeResponse.getAgeMillis() <= peerLookupMaxAgeMillis
+                    && (youngest == null || nodeResponse.getAgeMillis() < youngest.getAgeMillis())) {
+                youngest = nodeResponse;
             }
+        }
+        
+        if(youngest == null) {
+            peerLookupMissCount.increment();
             return null;
-        } finally {
-            ac.clearSecrets();
         }
+        
+        if(log.isDebugEnabled()) {
+            log.debug("Roles of {} not cached, use the ones of node {} ({} ms old)", username, youngest.getNode().getName(), youngest.getAgeMillis());
+        }
+        
+        peerLookupHitCount.increment();
+        final User authorizedUser = new User(username, youngest.getRoles(), null);
+        authorizedUser.getCustomAttributesMap().putAll(youngest.getAttributes());
+        return new Tuple<User, Long>(authorizedUser, youngest.getAgeMillis());
     }
-
+    
+    /**
+     * Serve the cached authorization result of a user to another node (see {@link AuthzLookupAction})
+     *
+     * @param rest true for the cache of the REST authorizers, false for the transport authorizers
+     * @param configVersion the config version of the requesting node
+     * @return the cached roles and attributes (never credentials) together with their age in ms, 
+     * null if peer lookup is disabled, the user is not cached or the config versions differ
+     */
+    public Tuple<User, Long> getCachedAuthzResult(final boolean rest, final String authDomain, final String username, final long configVersion) {
+        
+        if(!peerLookupEnabled || configVersion != this.configVersion) {
+            return null;
+        }
+        
+        //not via getIfPresent(), requests of other nodes should not count as hits or misses of the local cache
+        final User authzResult = (rest ? restAuthzCache : transportAuthzCache).asMap().get(authzKey(authDomain, username));
+        final Long loadedAt = authzResult == null ? null : authzLoadTimes.getIfPresent(authzResult);
+        
+        if(loadedAt == null) {
+            return null;
+        }
+        
+        peerLookupServedCount.increment();
+        return new Tuple<User, Long>(authzResult, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadedAt));
+    }
+    
+    /**
+     * Load the roles of recently active users in the background (one after the other to not overload the backends),
+     * so the first requests after a node start or config reload only need to verify the credentials.
+     * <p/>
+     * The authorizers only get the username here (like on a background refresh), so the results are kept apart
+     * from the authz caches and are only used for users without attributes (see getAuthzResult()).
+     */
+    private void warmUp(final AuthConfig authConfig) {
+        
+        if(cacheWarmer == null || !authConfig.initialized || !cacheWarmer.tryStart()) {
+            return;
+        }
+        
+        try (ThreadContext.StoredContext ctx = threadPool.getThreadContext().stashContext()) {
+            threadPool.generic().execute(new Runnable() {
+                @Override
+                public void run() {
+                    long warmed = 0;
+                    long failed = 0;
+                    
+                    try {
+                        for(final boolean rest: new boolean[] {true, false}) {
+                            
+                            final Set<AuthorizationBackend> authorizers = rest ? authConfig.restAuthorizers : authConfig.transportAuthorizers;
+                            
+                            if(authorizers.isEmpty()) {
+                                continue;
+                            }
+                            
+                            final Cache<Tuple<String, String>, User> authzCache = rest ? restAuthzCache : transportAuthzCache;
+                            final Cache<Tuple<String, String>, User> warmedAuthzCache = rest ? restWarmedAuthzCache : transportWarmedAuthzCache;
+                            final List<Tuple<String, String>> principals = rest ? cacheWarmer.getRestPrincipals() : cacheWarmer.getTransportPrincipals();
+                            
+                            for(final Tuple<String, String> principal: principals) {
+                                final String username = principal.v2();
+                                
+                                //a newer config was published in the meantime, it starts its own warm-up
+                                if(BackendRegistry.this.authConfig != authConfig) {
+                                    return;
+                                }
+                                
+                                //already authenticated since the start
+                                if(authzCache.asMap().containsKey(principal)) {
+                                    continue;
+                                }
+                                
+                                try {
+                                    final User warmedUser = fillRoles(new User(username), new AuthCredentials(username), authorizers, true);
+                                    authzLoadTimes.put(warmedUser, System.nanoTime());
+                                    warmedAuthzCache.put(principal, warmedUser);
+                                    warmed++;
+                                } catch (Exception e) {
+                                    failed++;
+                                    if(log.isDebugEnabled()) {
+                                        log.debug("Unable to warm up roles of {} due to {}", username, e.toString());
+                                    }
+                                }
+                            }
+                        }
+                        
+                        log.info("Cache warm-up finished, loaded roles of {} users ({} failed)", warmed, failed);
+                    } finally {
+                        cacheWarmer.finish(warmed, failed);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Unable to schedule cache warm-up due to {}", e.toString());
+            cacheWarmer.finish(0, 0);
+        }
+    }
+    
+    /**
+     * Pass the user to the authorizers, they add their roles and attributes to it
+     * 
+     * @param user a copy of the authenticated user, it already holds the added roles and attributes afterwards
+     * @param failOnError if true errors of the authorizers are propagated (refresh), otherwise they are only logged
+     * @return a user which only holds the roles and attributes added by the authorizers
+     */
+    private User fillRoles(final User user, final AuthCredentials credentials, final Set<AuthorizationBackend> authorizers, final boolean failOnError) {
+        final Set<String> rolesBefore = user.getRoles();
+        final Map<String, String> attributesBefore = new HashMap<String, String>(user.getCustomAttributesMap());
+        
+        for (final AuthorizationBackend ab : authorizers) {
+            try {
+                ab.fillRoles(user, credentials);
+            } catch (RuntimeException e) {
+                if(failOnError) {
+                    throw e;
+                }
+                log.error("Cannot retrieve roles for {} from {} due to {}", user.getName(), ab.getType(), e.toString(), e);
+            }
+        }
+        
+        final List<String> addedRoles = new ArrayList<String>();
+        
+        for(final String role: user.getRoles()) {
+            if(!rolesBefore.contains(role)) {
+                addedRoles.add(role);
+            }
+        }
+        
+        final User authorizedUser = new User(user.getName(), addedRoles, null);
+        
+        for(final Entry<String, String> attribute: user.getCustomAttributesMap().entrySet()) {
+            if(!Objects.equals(attribute.getValue(), attributesBefore.get(attribute.getKey()))) {
+                authorizedUser.getCustomAttributesMap().put(attribute.getKey(), attribute.getValue());
+            }
+        }
+        
+        return authorizedUser;
+    }
+    
+    /**
+     * If the cached user was loaded more than refresh_after_write_minutes ago reload it in the background.
+     * The stale user is served until the refreshed one replaces it, if the refresh fails the entry expires normally.
+     */
+    private <K> void refreshIfStale(final Cache<K, User> cache, final K key, final User cachedUser, final long refreshAfterWriteNanos) {
+        
+        if(refreshAfterWriteNanos <= 0 || cachedUser == null) {
+            return;
+        }
+        
+        final RefreshState state = refreshStates.getIfPresent(cachedUser);
+        
+        if(state == null 
+                || System.nanoTime() - state.loadedAt < refreshAfterWriteNanos 
+                || !state.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        
+        if(log.isDebugEnabled()) {
+            log.debug("Refresh cached user {} in the background", cachedUser.getName());
+        }
+        
+        try (ThreadContext.StoredContext ctx = threadPool.getThreadContext().stashContext()) {
+            threadPool.generic().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final User refreshedUser = state.reloader.call();
+                        
+                        if(refreshedUser == null) {
+                            if(log.isDebugEnabled()) {
+                                log.debug("User {} does not longer exist, remove it from cache", cachedUser.getName());
+                            }
+                            cache.asMap().remove(key, cachedUser);
+                            return;
+                        }
+                        
+                        refreshStates.put(refreshedUser, new RefreshState(state.reloader));
+                        
+                        //only replace if the entry was not invalidated or replaced in the meantime
+                        if(!cache.asMap().replace(key, cachedUser, refreshedUser)) {
+                            refreshStates.invalidate(refreshedUser);
+                        }
+                    } catch (Exception e) {
+                        log.warn("Unable to refresh cached user {} due to {}, it will expire normally", cachedUser.getName(), e.toString());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Unable to schedule refresh of cached user {} due to {}", cachedUser.getName(), e.toString());
+            state.refreshing.set(false);
+        }
+    }
+    
     private User impersonate(final TransportRequest tr, final User origPKIuser) throws ElasticsearchSecurityException {
 
         final String impersonatedUser = threadPool.getThreadContext().getHeader("sg_impersonate_as");
@@ -613,7 +1844,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
         return aU;
     }
     
-    private User impersonate(final RestRequest request, final User originalUser, final AuthDomain authDomain) throws ElasticsearchSecurityException {
+    private User impersonate(final RestRequest request, final User originalUser, final AuthDomain authDomain, final Set<AuthorizationBackend> restAuthorizers) throws ElasticsearchSecurityException {
 
         final String impersonatedUserHeader = request.header("sg_impersonate_as");
 
@@ -649,6 +1880,156 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
     }
     
+    private static final class HttpConnectionBinding {
+        
+        final String authorizationHeader;
+        final AuthDomain authDomain;
+        final User user;
+        final long generation;
+        final long boundAt = System.nanoTime();
+        
+        HttpConnectionBinding(final String authorizationHeader, final AuthDomain authDomain, final User user, final long generation) {
+            this.authorizationHeader = authorizationHeader;
+            this.authDomain = authDomain;
+            this.user = user;
+            this.generation = generation;
+        }
+    }
+    
+    /**
+     * Stable identity of a user session: everything the effective permissions are derived from
+     * (the sg roles are mapped from name and backend roles, index patterns may contain the name and attributes)
+     */
+    private static final class SessionKey {
+        
+        final String name;
+        final Set<String> roles;
+        final Map<String, String> attributes;
+        final long configVersion;
+        final int hashCode;
+        
+        SessionKey(final User user, final long configVersion) {
+            this.name = user.getName();
+            this.roles = user.getRoles();
+            this.attributes = new HashMap<String, String>(user.getCustomAttributesMap());
+            this.configVersion = configVersion;
+            this.hashCode = Objects.hash(name, roles, attributes, configVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof SessionKey)) {
+                return false;
+            }
+            final SessionKey other = (SessionKey) obj;
+            return hashCode == other.hashCode && configVersion == other.configVersion && name.equals(other.name) 
+                    && roles.equals(other.roles) && attributes.equals(other.attributes);
+        }
+    }
+    
+    private static final class RefreshState {
+        
+        final long loadedAt = System.nanoTime();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        final Callable<User> reloader;
+        
+        RefreshState(final Callable<User> reloader) {
+            this.reloader = reloader;
+        }
+    }
+    
+    /**
+     * Immutable snapshot of the auth domains and authorizers built from one version of the sg_config
+     */
+    private static final class AuthConfig {
+        
+        static final AuthConfig EMPTY = new AuthConfig(new TreeSet<AuthDomain>(), new HashSet<AuthorizationBackend>(), 
+                new TreeSet<AuthDomain>(), new HashSet<AuthorizationBackend>(), false, false, null);
+        
+        final SortedSet<AuthDomain> restAuthDomains;
+        final Set<AuthorizationBackend> restAuthorizers;
+        final SortedSet<AuthDomain> transportAuthDomains;
+        final Set<AuthorizationBackend> transportAuthorizers;
+        final boolean anonymousAuthEnabled;
+        final boolean initialized;
+        //null if session tokens are disabled
+        final HTTPSessionTokenAuthenticator sessionTokenAuthenticator;
+        //dispatch table: the headers (any of them) each rest auth domain needs to find credentials, no entry means always try
+        final Map<AuthDomain, String[]> restRequiredHeaders = new IdentityHashMap<AuthDomain, String[]>();
+        final Set<AuthDomain> restRequiresClientCertificate = Collections.newSetFromMap(new IdentityHashMap<AuthDomain, Boolean>());
+        
+        AuthConfig(final SortedSet<AuthDomain> restAuthDomains, final Set<AuthorizationBackend> restAuthorizers,
+                final SortedSet<AuthDomain> transportAuthDomains, final Set<AuthorizationBackend> transportAuthorizers,
+                final boolean anonymousAuthEnabled, final boolean initialized, final HTTPSessionTokenAuthenticator sessionTokenAuthenticator) {
+            this.restAuthDomains = Collections.unmodifiableSortedSet(restAuthDomains);
+            this.restAuthorizers = Collections.unmodifiableSet(restAuthorizers);
+            this.transportAuthDomains = Collections.unmodifiableSortedSet(transportAuthDomains);
+            this.transportAuthorizers = Collections.unmodifiableSet(transportAuthorizers);
+            this.anonymousAuthEnabled = anonymousAuthEnabled;
+            this.initialized = initialized;
+            this.sessionTokenAuthenticator = sessionTokenAuthenticator;
+            
+            for(final AuthDomain authDomain: restAuthDomains) {
+                final HTTPAuthenticator httpAuthenticator = authDomain.getHttpAuthenticator();
+                
+                if(httpAuthenticator == null) {
+                    continue;
+                }
+                
+                final Set<String> requiredHeaders = httpAuthenticator.getRequiredHeaders();
+                
+                if(requiredHeaders != null && !requiredHeaders.isEmpty()) {
+                    restRequiredHeaders.put(authDomain, requiredHeaders.toArray(new String[0]));
+                }
+                
+                if(httpAuthenticator.requiresClientCertificate()) {
+                    restRequiresClientCertificate.add(authDomain);
+                }
+            }
+        }
+        
+        /**
+         * @return false if the request lacks what the http authenticator of the domain needs to find credentials
+         */
+        boolean canHaveCredentials(final AuthDomain authDomain, final RestRequest request, final ThreadContext threadContext) {
+            
+            if(restRequiresClientCertificate.contains(authDomain) 
+                    && Strings.isNullOrEmpty((String) threadContext.getTransient(ConfigConstants.SG_SSL_PRINCIPAL))) {
+                return false;
+            }
+            
+            final String[] requiredHeaders = restRequiredHeaders.get(authDomain);
+            
+            if(requiredHeaders == null) {
+                return true;
+            }
+            
+            for(final String header: requiredHeaders) {
+                if(!Strings.isNullOrEmpty(request.header(header))) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        /**
+         * @return the same auth domains with another session token authenticator (a rotated signing key)
+         */
+        AuthConfig withSessionTokenAuthenticator(final HTTPSessionTokenAuthenticator sessionTokenAuthenticator) {
+            return new AuthConfig(restAuthDomains, restAuthorizers, transportAuthDomains, transportAuthorizers, anonymousAuthEnabled, initialized, 
+                    sessionTokenAuthenticator);
+        }
+    }
+    
     private <T> T newInstance(final String clazzOrShortcut, String type, final Settings settings, final Path configPath) {
         
         String clazz = clazzOrShortcut;
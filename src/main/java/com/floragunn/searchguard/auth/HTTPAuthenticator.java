@@ -17,6 +17,8 @@
 
 package com.floragunn.searchguard.auth;
 
+import java.util.Set;
+
 import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.rest.RestChannel;
@@ -77,4 +79,25 @@ public interface HTTPAuthenticator {
      * If true is returned {@code channel.sendResponse()} must be called so that the request completes.
      */
     boolean reRequestAuthentication(final RestChannel channel, AuthCredentials credentials);
+    
+    /**
+     * The request headers this authenticator needs to find credentials. If none of them is present in a request 
+     * {@code extractCredentials()} is not called and the request is treated as if it did not contain credentials.
+     * <p/>
+     * Called once when the configuration is loaded.
+     * 
+     * @return the header names, null if {@code extractCredentials()} must always be called
+     */
+    default Set<String> getRequiredHeaders() {
+        return null;
+    }
+    
+    /**
+     * Called once when the configuration is loaded.
+     * 
+     * @return true if credentials can only be found in requests of clients which presented a certificate
+     */
+    default boolean requiresClientCertificate() {
+        return false;
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.elasticsearch.common.collect.Tuple;
+
+import com.floragunn.searchguard.auditlog.AuditLog;
+import com.floragunn.searchguard.user.AuthCredentials;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Removal listener of the negative cache: the failed logins which were rejected by a negative cache entry
+ * are reported once in aggregate when the entry expires or is invalidated
+ */
+final class RepeatedFailedLoginReporter implements RemovalListener<Tuple<AuthDomain, AuthCredentials>, LongAdder> {
+
+    private final AuditLog auditLog;
+
+    RepeatedFailedLoginReporter(final AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    @Override
+    public void onRemoval(final RemovalNotification<Tuple<AuthDomain, AuthCredentials>, LongAdder> notification) {
+        final long repeated = notification.getValue().sum();
+
+        if (repeated > 0) {
+            auditLog.logRepeatedFailedLogins(notification.getKey().v2().getUsername(), repeated);
+        }
+    }
+}
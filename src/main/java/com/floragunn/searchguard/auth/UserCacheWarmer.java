@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.collect.Tuple;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the names (never any secrets) of recently authenticated users per node, so that their authorization data can
+ * be loaded in the background after a node start or a config reload, before they send their next request.
+ * <p>
+ * The names are written to a file in the node data path, one "rest|transport TAB authdomain TAB username" per line.
+ */
+final class UserCacheWarmer {
+
+    private static final String REST = "rest";
+    private static final String TRANSPORT = "transport";
+
+    private final Logger log = LogManager.getLogger(this.getClass());
+    private final Path file;
+    //auth domain name and username
+    private final Cache<Tuple<String, String>, Boolean> restPrincipals;
+    private final Cache<Tuple<String, String>, Boolean> transportPrincipals;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean dirty;
+    private final LongAdder warmedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    /**
+     * @param file where the principals are kept across restarts, maybe null
+     */
+    UserCacheWarmer(final Path file, final long maxPrincipals, final int recentMinutes) {
+        this.file = file;
+        this.restPrincipals = newPrincipalCache(maxPrincipals, recentMinutes);
+        this.transportPrincipals = newPrincipalCache(maxPrincipals, recentMinutes);
+    }
+
+    void onAuthenticated(final boolean rest, final String authDomain, final String username) {
+        if (username.indexOf('\n') >= 0 || username.indexOf('\r') >= 0 || authDomain.indexOf('\t') >= 0) {
+            return;
+        }
+
+        final Cache<Tuple<String, String>, Boolean> principals = rest ? restPrincipals : transportPrincipals;
+        final Tuple<String, String> principal = new Tuple<String, String>(authDomain, username);
+
+        if (principals.getIfPresent(principal) == null) {
+            principals.put(principal, Boolean.TRUE);
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return auth domain name and username of the recently authenticated REST users
+     */
+    List<Tuple<String, String>> getRestPrincipals() {
+        return new ArrayList<Tuple<String, String>>(restPrincipals.asMap().keySet());
+    }
+
+    /**
+     * @return auth domain name and username of the recently authenticated transport users
+     */
+    List<Tuple<String, String>> getTransportPrincipals() {
+        return new ArrayList<Tuple<String, String>>(transportPrincipals.asMap().keySet());
+    }
+
+    /**
+     * @return false if a warm-up is already running
+     */
+    boolean tryStart() {
+        return running.compareAndSet(false, true);
+    }
+
+    void finish(final long warmed, final long failed) {
+        warmedCount.add(warmed);
+        failedCount.add(failed);
+        running.set(false);
+    }
+
+    Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("rest_principals", restPrincipals.size());
+        statistics.put("transport_principals", transportPrincipals.size());
+        statistics.put("running", running.get());
+        statistics.put("warmed_count", warmedCount.sum());
+        statistics.put("failed_count", failedCount.sum());
+        return statistics;
+    }
+
+    void load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf('\t');
+                final int domainSeparator = separator > 0 ? line.indexOf('\t', separator + 1) : -1;
+
+                if (domainSeparator > separator + 1 && domainSeparator < line.length() - 1) {
+                    final String type = line.substring(0, separator);
+                    final String authDomain = line.substring(separator + 1, domainSeparator);
+                    final String username = line.substring(domainSeparator + 1);
+                    (REST.equals(type) ? restPrincipals : transportPrincipals).put(new Tuple<String, String>(authDomain, username), Boolean.TRUE);
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Loaded {} rest and {} transport principals for cache warm-up from {}", restPrincipals.size(),
+                        transportPrincipals.size(), file);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read principals for cache warm-up from {} due to {}", file, e.toString());
+        }
+    }
+
+    void persist() {
+        if (file == null || !dirty) {
+            return;
+        }
+
+        dirty = false;
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (final Tuple<String, String> principal : restPrincipals.asMap().keySet()) {
+                    writer.write(REST + "\t" + principal.v1() + "\t" + principal.v2() + "\n");
+                }
+                for (final Tuple<String, String> principal : transportPrincipals.asMap().keySet()) {
+                    writer.write(TRANSPORT + "\t" + principal.v1() + "\t" + principal.v2() + "\n");
+                }
+            }
+
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("Unable to write principals for cache warm-up to {} due to {}", file, e.toString());
+        }
+    }
+
+    private static Cache<Tuple<String, String>, Boolean> newPrincipalCache(final long maxPrincipals, final int recentMinutes) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maxPrincipals)
+                .expireAfterAccess(recentMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+}
@@ -21,12 +21,23 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
 import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPoolStats;
 
 import com.floragunn.searchguard.auth.AuthenticationBackend;
 import com.floragunn.searchguard.configuration.ConfigurationRepository;
@@ -37,38 +48,63 @@ import com.floragunn.searchguard.user.User;
 public class InternalAuthenticationBackend implements AuthenticationBackend {
 
     private final ConfigurationRepository configurationRepository;
+    private final ThreadPool threadPool;
+    private final boolean bcryptOffloadEnabled;
+    //concurrent verifications of the same credentials share one bcrypt computation
+    private final ConcurrentMap<AuthCredentials, CompletableFuture<Boolean>> pendingVerifications = new ConcurrentHashMap<>();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    //only not null if internal users can also be stored as individual documents in the searchguard index
+    private final InternalUsersDocumentStore documentStore;
+    private volatile InternalUsersIndex internalUsers;
 
     public InternalAuthenticationBackend(final ConfigurationRepository configurationRepository) {
+        this(configurationRepository, null);
+    }
+    
+    public InternalAuthenticationBackend(final ConfigurationRepository configurationRepository, final ThreadPool threadPool) {
+        this(Settings.EMPTY, configurationRepository, threadPool, null);
+    }
+    
+    /**
+     * If {@value ConfigConstants#SEARCHGUARD_BCRYPT_OFFLOAD_ENABLED} is true (and the threadPool is not null) the bcrypt
+     * verification is done on the {@value ConfigConstants#SG_BCRYPT_THREAD_POOL_NAME} thread pool. The caller still waits 
+     * for the result, the pool only bounds the number of cores used by bcrypt.
+     * 
+     * @param client if not null and {@value ConfigConstants#SEARCHGUARD_INTERNALUSERS_ON_DEMAND_ENABLED} is true users which are not
+     * part of the internalusers configuration are looked up on demand as individual documents in the searchguard index
+     */
+    public InternalAuthenticationBackend(final Settings settings, final ConfigurationRepository configurationRepository, final ThreadPool threadPool, final Client client) {
         super();
         this.configurationRepository = configurationRepository;
+        this.threadPool = threadPool;
+        this.bcryptOffloadEnabled = threadPool != null && settings.getAsBoolean(ConfigConstants.SEARCHGUARD_BCRYPT_OFFLOAD_ENABLED, false);
+        this.documentStore = client != null && threadPool != null && settings.getAsBoolean(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_ENABLED, false)
+                ? new InternalUsersDocumentStore(settings, client, threadPool) : null;
     }
 
     @Override
     public boolean exists(User user) {
 
-        final Settings cfg = getConfigSettings();
-        if (cfg == null) {
+        final InternalUsersIndex users = getInternalUsers();
+        if (users == null) {
             return false;
         }
         
-        String hashed = cfg.get(user.getName() + ".hash");
+        final String hashed = users.getHash(user.getName());
 
         if (hashed == null) {
+            final InternalUsersDocumentStore.StoredUser storedUser = documentStore == null ? null : documentStore.get(user.getName());
             
-            for(String username:cfg.names()) {
-                String u = cfg.get(username + ".username");
-                if(user.getName().equals(u)) {
-                    hashed = cfg.get(username+ ".hash");
-                    break;
-                }
-            }
-            
-            if(hashed == null) {
+            if (storedUser == null) {
                 return false;
             }
+            
+            user.addRoles(storedUser.getRoles());
+            return true;
         }
         
-        final List<String> roles = cfg.getAsList(user.getName() + ".roles", Collections.emptyList());
+        final List<String> roles = users.getRoles(user.getName());
         
         if(roles != null) {
             user.addRoles(roles);
@@ -80,27 +116,24 @@ public class InternalAuthenticationBackend implements AuthenticationBackend {
     @Override
     public User authenticate(final AuthCredentials credentials) {
         
-        final Settings cfg = getConfigSettings();
-        if (cfg == null) {
+        final InternalUsersIndex users = getInternalUsers();
+        if (users == null) {
             throw new ElasticsearchSecurityException("Internal authentication backend not configured. May be Search Guard is not initialized. See http://docs.search-guard.com/v6/sgadmin");
 
         }
 
-        String hashed = cfg.get(credentials.getUsername() + ".hash");
+        String hashed = users.getHash(credentials.getUsername());
+        List<String> roles = null;
 
         if (hashed == null) {
+            final InternalUsersDocumentStore.StoredUser storedUser = documentStore == null ? null : documentStore.get(credentials.getUsername());
             
-            for(String username:cfg.names()) {
-                String u = cfg.get(username + ".username");
-                if(credentials.getUsername().equals(u)) {
-                    hashed = cfg.get(username+ ".hash");
-                    break;
-                }
+            if (storedUser == null) {
+                throw new ElasticsearchSecurityException(credentials.getUsername() + " not found", RestStatus.UNAUTHORIZED);
             }
             
-            if(hashed == null) {
-                throw new ElasticsearchSecurityException(credentials.getUsername() + " not found");
-            }
+            hashed = storedUser.getHash();
+            roles = storedUser.getRoles();
         }
         
         final byte[] password = credentials.getPassword();
@@ -117,11 +150,13 @@ public class InternalAuthenticationBackend implements AuthenticationBackend {
         Arrays.fill(password, (byte)0);
        
         try {
-            if (OpenBSDBCrypt.checkPassword(hashed, array)) {
-                final List<String> roles = cfg.getAsList(credentials.getUsername() + ".roles", Collections.emptyList());
+            if (checkPassword(credentials, hashed, array)) {
+                if (roles == null) {
+                    roles = users.getRoles(credentials.getUsername());
+                }
                 return new User(credentials.getUsername(), roles, credentials);
             } else {
-                throw new ElasticsearchSecurityException("password does not match");
+                throw new ElasticsearchSecurityException("password does not match", RestStatus.UNAUTHORIZED);
             }
         } finally {
             Arrays.fill(wrap.array(), (byte)0);
@@ -134,8 +169,114 @@ public class InternalAuthenticationBackend implements AuthenticationBackend {
     public String getType() {
         return "internal";
     }
+    
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("pending_count", pendingVerifications.size());
+        statistics.put("coalesced_count", coalescedCount.sum());
+        statistics.put("rejected_count", rejectedCount.sum());
+        statistics.put("offload_enabled", bcryptOffloadEnabled);
+        
+        if(bcryptOffloadEnabled) {
+            for(final ThreadPoolStats.Stats stats: threadPool.stats()) {
+                if(ConfigConstants.SG_BCRYPT_THREAD_POOL_NAME.equals(stats.getName())) {
+                    statistics.put("threads", stats.getThreads());
+                    statistics.put("queue", stats.getQueue());
+                    statistics.put("active", stats.getActive());
+                    statistics.put("largest", stats.getLargest());
+                    statistics.put("completed", stats.getCompleted());
+                    statistics.put("rejected", stats.getRejected());
+                }
+            }
+        }
+        
+        if(documentStore != null) {
+            statistics.put("on_demand_users", documentStore.getStatistics());
+        }
+        
+        return statistics;
+    }
+    
+    private boolean checkPassword(final AuthCredentials credentials, final String hashed, final char[] password) {
+        
+        if(!bcryptOffloadEnabled) {
+            return OpenBSDBCrypt.checkPassword(hashed, password);
+        }
+        
+        final CompletableFuture<Boolean> verification = new CompletableFuture<Boolean>();
+        CompletableFuture<Boolean> pendingVerification = pendingVerifications.putIfAbsent(credentials, verification);
+        
+        if(pendingVerification != null) {
+            coalescedCount.increment();
+        } else {
+            pendingVerification = verification;
+            //the caller zeroes its password when it stops waiting, the task needs its own copy
+            final char[] taskPassword = Arrays.copyOf(password, password.length);
+            
+            try {
+                threadPool.executor(ConfigConstants.SG_BCRYPT_THREAD_POOL_NAME).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            verification.complete(OpenBSDBCrypt.checkPassword(hashed, taskPassword));
+                        } catch (Throwable e) {
+                            verification.completeExceptionally(e);
+                        } finally {
+                            Arrays.fill(taskPassword, '\0');
+                            pendingVerifications.remove(credentials, verification);
+                        }
+                    }
+                });
+            } catch (EsRejectedExecutionException e) {
+                Arrays.fill(taskPassword, '\0');
+                rejectedCount.increment();
+                pendingVerifications.remove(credentials, verification);
+                final ElasticsearchSecurityException rejected = new ElasticsearchSecurityException(
+                        "Too many concurrent password verifications, try again later", RestStatus.TOO_MANY_REQUESTS, e);
+                verification.completeExceptionally(rejected);
+                throw rejected;
+            }
+        }
+        
+        try {
+            return pendingVerification.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchSecurityException("Interrupted while verifying password", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof ElasticsearchSecurityException) {
+                throw (ElasticsearchSecurityException) e.getCause();
+            }
+            throw new ElasticsearchSecurityException("Unable to verify password", e.getCause());
+        }
+    }
 
     private Settings getConfigSettings() {
         return configurationRepository.getConfiguration(ConfigConstants.CONFIGNAME_INTERNAL_USERS);
     }
+    
+    /**
+     * @return the lookup index of the current internalusers configuration, rebuilt once per config change
+     */
+    private InternalUsersIndex getInternalUsers() {
+        final Settings cfg = getConfigSettings();
+        
+        if (cfg == null) {
+            return null;
+        }
+        
+        InternalUsersIndex index = internalUsers;
+        
+        if (index == null || !index.isBuiltFrom(cfg)) {
+            index = new InternalUsersIndex(cfg);
+            internalUsers = index;
+            
+            if (documentStore != null) {
+                //a reload of the internalusers configuration also flushes the users loaded on demand
+                documentStore.invalidateAll();
+            }
+        }
+        
+        return index;
+    }
 }
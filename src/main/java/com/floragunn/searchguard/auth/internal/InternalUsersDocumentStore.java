@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.common.util.concurrent.ThreadContext.StoredContext;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.Transports;
+
+import com.floragunn.searchguard.support.ConfigConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Internal users which are stored as individual documents in the Search Guard index
+ * (id {@code internaluser:<username>}, source {@code {"hash": "...", "roles": ["...", ...]}}).
+ * <p>
+ * Users are fetched on demand with a realtime get by id and only recently used users are kept in a bounded local cache.
+ * Unknown usernames are remembered separately for a short time only, so a newly created document is picked up quickly.
+ * Usernames are the document ids, so aliases ("username" attribute) are not supported for these users.
+ * <p>
+ * Network threads never wait for a document, if a user is not cached on a network thread the document is fetched
+ * in the background and the authentication fails with 503 (enable searchguard.authc.async.enabled to avoid this).
+ * <p>
+ * Changes of the documents are picked up when the cached entry expires (cache_ttl_seconds) and the authenticated user
+ * is evicted from the authentication caches (searchguard.cache.ttl_minutes). Reloading the internalusers configuration
+ * applies them immediately.
+ */
+final class InternalUsersDocumentStore {
+
+    static final String ID_PREFIX = "internaluser:";
+
+    private static final long GET_TIMEOUT_SECONDS = 10;
+
+    protected final Logger log = LogManager.getLogger(this.getClass());
+    private final Client client;
+    private final ThreadContext threadContext;
+    private final String searchguardIndex;
+    private final Cache<String, StoredUser> users;
+    private final Cache<String, Boolean> unknownUsers;
+    //usernames which are fetched in the background
+    private final Set<String> pendingLoads = ConcurrentHashMap.newKeySet();
+
+    InternalUsersDocumentStore(final Settings settings, final Client client, final ThreadPool threadPool) {
+        this.client = client;
+        this.threadContext = threadPool.getThreadContext();
+        this.searchguardIndex = settings.get(ConfigConstants.SEARCHGUARD_CONFIG_INDEX_NAME, ConfigConstants.SG_DEFAULT_CONFIG_INDEX);
+        final long maxSize = settings.getAsLong(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_CACHE_MAX_SIZE, 10000L);
+        this.users = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(settings.getAsInt(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_CACHE_TTL_SECONDS, 60), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        final int negativeTtl = settings.getAsInt(ConfigConstants.SEARCHGUARD_INTERNALUSERS_ON_DEMAND_NEGATIVE_CACHE_TTL_SECONDS, 5);
+        this.unknownUsers = CacheBuilder.newBuilder()
+                .maximumSize(negativeTtl <= 0 ? 0 : maxSize)
+                .expireAfterWrite(Math.max(negativeTtl, 0), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @return the stored user or null if there is no document for this username
+     */
+    StoredUser get(final String username) {
+        if (username == null || username.isEmpty()) {
+            return null;
+        }
+
+        if (unknownUsers.getIfPresent(username) != null) {
+            return null;
+        }
+
+        if (Transports.isTransportThread(Thread.currentThread())) {
+            final StoredUser cached = users.getIfPresent(username);
+
+            if (cached != null) {
+                return cached;
+            }
+
+            loadInBackground(username);
+            throw new ElasticsearchSecurityException("Internal user " + username + " is not loaded yet, try again later", RestStatus.SERVICE_UNAVAILABLE);
+        }
+
+        try {
+            return users.get(username, () -> load(username));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof UnknownUserException) {
+                return null;
+            }
+            if (e.getCause() instanceof ElasticsearchSecurityException) {
+                throw (ElasticsearchSecurityException) e.getCause();
+            }
+            throw new ElasticsearchSecurityException("Unable to load internal user " + username, e.getCause());
+        }
+    }
+
+    void invalidateAll() {
+        users.invalidateAll();
+        unknownUsers.invalidateAll();
+    }
+
+    Map<String, Object> getStatistics() {
+        final CacheStats stats = users.stats();
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("size", users.size());
+        statistics.put("unknown_users_size", unknownUsers.size());
+        statistics.put("hit_count", stats.hitCount());
+        statistics.put("miss_count", stats.missCount());
+        statistics.put("evictions", stats.evictionCount());
+        statistics.put("load_exception_count", stats.loadExceptionCount());
+        statistics.put("average_load_penalty_ms", stats.averageLoadPenalty() / 1000000d);
+        return statistics;
+    }
+
+    private StoredUser load(final String username) throws UnknownUserException {
+        final PlainActionFuture<GetResponse> future = PlainActionFuture.newFuture();
+        get(username, future);
+
+        final StoredUser user;
+
+        try {
+            user = parse(username, future.actionGet(GET_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } catch (IndexNotFoundException e) {
+            unknownUsers.put(username, Boolean.TRUE);
+            throw new UnknownUserException();
+        }
+
+        if (user == null) {
+            unknownUsers.put(username, Boolean.TRUE);
+            throw new UnknownUserException();
+        }
+
+        return user;
+    }
+
+    private void loadInBackground(final String username) {
+        if (!pendingLoads.add(username)) {
+            return;
+        }
+
+        get(username, new ActionListener<GetResponse>() {
+
+            @Override
+            public void onResponse(final GetResponse response) {
+                try {
+                    final StoredUser user = parse(username, response);
+
+                    if (user == null) {
+                        unknownUsers.put(username, Boolean.TRUE);
+                    } else {
+                        users.put(username, user);
+                    }
+                } finally {
+                    pendingLoads.remove(username);
+                }
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                pendingLoads.remove(username);
+
+                if (e instanceof IndexNotFoundException) {
+                    unknownUsers.put(username, Boolean.TRUE);
+                } else {
+                    log.warn("Unable to load internal user {}", username, e);
+                }
+            }
+        });
+    }
+
+    private void get(final String username, final ActionListener<GetResponse> listener) {
+        try (StoredContext ctx = threadContext.stashContext()) {
+            threadContext.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
+            client.get(new GetRequest(searchguardIndex, "sg", ID_PREFIX + username).realtime(true), listener);
+        }
+    }
+
+    /**
+     * @return the stored user or null if the response contains no valid user document
+     */
+    private StoredUser parse(final String username, final GetResponse response) {
+
+        if (!response.isExists() || response.isSourceEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug("No internal user document for {}", username);
+            }
+            return null;
+        }
+
+        final Map<String, Object> source = response.getSourceAsMap();
+        final Object hash = source.get("hash");
+
+        if (!(hash instanceof String)) {
+            log.warn("Internal user document for {} has no hash", username);
+            return null;
+        }
+
+        final List<String> roles = new ArrayList<String>();
+        final Object rolesValue = source.get("roles");
+
+        if (rolesValue instanceof Collection) {
+            for (final Object role : (Collection<?>) rolesValue) {
+                if (role != null) {
+                    roles.add(role.toString());
+                }
+            }
+        } else if (rolesValue != null) {
+            roles.add(rolesValue.toString());
+        }
+
+        return new StoredUser((String) hash, Collections.unmodifiableList(roles));
+    }
+
+    /**
+     * Thrown by the cache loader if there is no document for a user, unknown users are cached separately
+     */
+    private static final class UnknownUserException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnknownUserException() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final class StoredUser {
+
+        private final String hash;
+        private final List<String> roles;
+
+        StoredUser(final String hash, final List<String> roles) {
+            this.hash = hash;
+            this.roles = roles;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        List<String> getRoles() {
+            return roles;
+        }
+    }
+}
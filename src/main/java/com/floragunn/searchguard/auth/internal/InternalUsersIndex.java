@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Immutable hash index over one instance of the internalusers configuration.
+ * <p>
+ * Users are looked up by their key first and then by the value of their "username" attribute (alias),
+ * like the former linear scan did. Roles are always looked up by the given name.
+ */
+final class InternalUsersIndex {
+
+    private static final String HASH_SUFFIX = ".hash";
+    private static final String USERNAME_SUFFIX = ".username";
+    private static final String ROLES_SUFFIX = ".roles";
+
+    private final Settings source;
+    private final Map<String, String> hashes;
+    private final Map<String, String> aliasHashes;
+    private final Map<String, List<String>> roles;
+
+    InternalUsersIndex(final Settings cfg) {
+        this.source = cfg;
+
+        final Map<String, String> hashes = new HashMap<String, String>();
+        final Map<String, String> aliases = new HashMap<String, String>();
+        final Map<String, List<String>> roles = new HashMap<String, List<String>>();
+
+        for (final String key : cfg.keySet()) {
+            if (key.endsWith(HASH_SUFFIX)) {
+                hashes.put(key.substring(0, key.length() - HASH_SUFFIX.length()), cfg.get(key));
+            } else if (key.endsWith(USERNAME_SUFFIX)) {
+                final String alias = cfg.get(key);
+                if (alias != null && !aliases.containsKey(alias)) {
+                    aliases.put(alias, key.substring(0, key.length() - USERNAME_SUFFIX.length()));
+                }
+            } else if (key.endsWith(ROLES_SUFFIX)) {
+                roles.put(key.substring(0, key.length() - ROLES_SUFFIX.length()),
+                        Collections.unmodifiableList(cfg.getAsList(key, Collections.emptyList())));
+            }
+        }
+
+        final Map<String, String> aliasHashes = new HashMap<String, String>(aliases.size());
+
+        for (final Map.Entry<String, String> alias : aliases.entrySet()) {
+            final String hash = hashes.get(alias.getValue());
+            if (hash != null) {
+                aliasHashes.put(alias.getKey(), hash);
+            }
+        }
+
+        this.hashes = Collections.unmodifiableMap(hashes);
+        this.aliasHashes = Collections.unmodifiableMap(aliasHashes);
+        this.roles = Collections.unmodifiableMap(roles);
+    }
+
+    boolean isBuiltFrom(final Settings cfg) {
+        return source == cfg;
+    }
+
+    /**
+     * @return the password hash of the user with this name or alias, null if there is no such user
+     */
+    String getHash(final String name) {
+        final String hash = hashes.get(name);
+        return hash != null ? hash : aliasHashes.get(name);
+    }
+
+    List<String> getRoles(final String name) {
+        final List<String> userRoles = roles.get(name);
+        return userRoles == null ? Collections.<String>emptyList() : userRoles;
+    }
+
+    int size() {
+        return hashes.size();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+
+/**
+ * Everything which can be derived from an authenticated user and the current roles/rolesmapping configuration 
+ * without looking at a concrete request: the mapped sg roles, the settings of these roles, the index patterns 
+ * with ${user.*} substitutions applied and the tenants.
+ * <p>
+ * Only the mapped sg roles are computed upfront, everything else is computed on first use. If the permissions 
+ * belong to an authenticated user session the computed values are kept for later requests, otherwise 
+ * (e.g. users deserialized from a transport request) they are computed for every call.
+ * <p>
+ * The permissions are only valid for the configuration instances and the caller address they were computed from.
+ */
+public final class EffectivePermissions {
+
+    private final Settings roles;
+    private final Settings rolesMapping;
+    private final String callerAddress;
+    private final Set<String> sgRoles;
+    private final boolean session;
+    private final Map<String, Settings> roleSettings;
+    private final Map<String, Map<String, Settings>> permittedAliasesIndices;
+    private final Map<String, Map<String, Settings>> permittedAliasesIndicesIgnoreNonGrouped;
+    private volatile Map<String, Boolean> tenants;
+
+    EffectivePermissions(final Settings roles, final Settings rolesMapping, final TransportAddress caller, final Set<String> sgRoles,
+            final boolean session) {
+        this.roles = roles;
+        this.rolesMapping = rolesMapping;
+        this.callerAddress = caller == null ? null : caller.getAddress();
+        this.sgRoles = sgRoles;
+        this.session = session;
+        this.roleSettings = session ? new ConcurrentHashMap<String, Settings>() : null;
+        this.permittedAliasesIndices = session ? new ConcurrentHashMap<String, Map<String, Settings>>() : null;
+        this.permittedAliasesIndicesIgnoreNonGrouped = session ? new ConcurrentHashMap<String, Map<String, Settings>>() : null;
+    }
+
+    /**
+     * @return true if these permissions were computed from exactly these configuration instances and for the same caller host
+     */
+    public boolean isValidFor(final Settings roles, final Settings rolesMapping, final TransportAddress caller) {
+        return this.roles == roles && this.rolesMapping == rolesMapping
+                && Objects.equals(callerAddress, caller == null ? null : caller.getAddress());
+    }
+
+    Settings getRoles() {
+        return roles;
+    }
+
+    public Set<String> getSgRoles() {
+        return sgRoles;
+    }
+
+    /**
+     * @return the settings of a mapped role, keys are relative to the role name (e.g. ".cluster")
+     */
+    Settings getRoleSettings(final String sgRole, final Function<String, Settings> loader) {
+        return session ? roleSettings.computeIfAbsent(sgRole, loader) : loader.apply(sgRole);
+    }
+
+    /**
+     * @return the index patterns of a mapped role with ${user.*} substitutions applied, the loader is expected to 
+     *         behave like {@code Settings.getGroups(".indices", ignoreNonGroupedSettings)}
+     */
+    Map<String, Settings> getPermittedAliasesIndices(final String sgRole, final boolean ignoreNonGroupedSettings,
+            final Function<String, Map<String, Settings>> loader) {
+        
+        if (!session) {
+            return loader.apply(sgRole);
+        }
+        
+        return (ignoreNonGroupedSettings ? permittedAliasesIndicesIgnoreNonGrouped : permittedAliasesIndices).computeIfAbsent(sgRole, loader);
+    }
+
+    Map<String, Boolean> getTenants(final Supplier<Map<String, Boolean>> loader) {
+        
+        if (!session) {
+            return loader.get();
+        }
+        
+        Map<String, Boolean> result = tenants;
+        
+        if (result == null) {
+            tenants = result = loader.get();
+        }
+        
+        return result;
+    }
+
+    /**
+     * Mutable slot which is attached to an authenticated user session and passed through the thread context,
+     * the permissions are created on first evaluation and replaced if they became stale.
+     */
+    public static final class Holder {
+
+        private volatile EffectivePermissions permissions;
+
+        public EffectivePermissions get() {
+            return permissions;
+        }
+
+        public void set(final EffectivePermissions permissions) {
+            this.permissions = permissions;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Compiled, read only representation of the roles configuration which is stored outside of the java heap.
+ * <p>
+ * All keys and values of all roles are interned into one string pool (UTF-8 in a direct buffer),
+ * every role is stored as a record of string pool ids and the role names are indexed by an open addressing
+ * hash table which is also held in a direct buffer. Only the settings of the roles which are actually needed
+ * to evaluate a request are materialized on the heap (see {@link #getRoleSettings(String)}).
+ */
+public final class OffHeapRolesTable {
+
+    private static final int EMPTY_SLOT = -1;
+    private static final int SCALAR = 0;
+    private static final int LIST = 1;
+    //the first level keys of a role, everything in front of them is the (possibly dotted) role name
+    private static final Set<String> ROLE_SECTIONS = new HashSet<String>(Arrays.asList("cluster", "indices", "tenants", "readonly"));
+
+    //only used to identify the settings this table was compiled from, the settings itself must not be retained
+    private final WeakReference<Settings> source;
+    private final int roleCount;
+    //utf-8 bytes of all interned strings
+    private final ByteBuffer stringPool;
+    //start offset of every interned string in the pool, one additional entry marks the end of the pool
+    private final IntBuffer stringOffsets;
+    //role records: nameId, entryCount, (keyId, SCALAR, valueId | keyId, LIST, count, valueIds...)*
+    private final IntBuffer records;
+    //open addressing hash table of role names, slot contains the offset of the role record
+    private final IntBuffer directory;
+    private final int directoryMask;
+
+    private OffHeapRolesTable(final Settings source, final int roleCount, final ByteBuffer stringPool, final IntBuffer stringOffsets,
+            final IntBuffer records, final IntBuffer directory) {
+        this.source = new WeakReference<Settings>(source);
+        this.roleCount = roleCount;
+        this.stringPool = stringPool;
+        this.stringOffsets = stringOffsets;
+        this.records = records;
+        this.directory = directory;
+        this.directoryMask = directory.capacity() - 1;
+    }
+
+    public static OffHeapRolesTable compile(final Settings roles) throws IOException {
+
+        //use the stream representation to get the raw values (string or list of strings) in one pass
+        final Map<String, List<Tuple<String, Object>>> entriesByRole = new LinkedHashMap<String, List<Tuple<String, Object>>>();
+        final BytesStreamOutput out = new BytesStreamOutput();
+        Settings.writeSettingsToStream(roles, out);
+
+        try (StreamInput in = out.bytes().streamInput()) {
+            final int size = in.readVInt();
+            for (int i = 0; i < size; i++) {
+                final String key = in.readString();
+                final Object value = in.readGenericValue();
+                final int dot = roleNameEnd(key);
+
+                if (dot <= 0 || value == null) {
+                    continue;
+                }
+
+                final String roleName = key.substring(0, dot);
+                List<Tuple<String, Object>> entries = entriesByRole.get(roleName);
+
+                if (entries == null) {
+                    entries = new ArrayList<Tuple<String, Object>>();
+                    entriesByRole.put(roleName, entries);
+                }
+
+                entries.add(new Tuple<String, Object>(key.substring(dot), value));
+            }
+        }
+
+        final Compiler compiler = new Compiler();
+        final List<String> roleNames = new ArrayList<String>(entriesByRole.size());
+        final int[] recordOffsets = new int[entriesByRole.size()];
+
+        for (final Entry<String, List<Tuple<String, Object>>> role : entriesByRole.entrySet()) {
+            recordOffsets[roleNames.size()] = compiler.addRole(compiler.intern(role.getKey()), role.getValue());
+            roleNames.add(role.getKey());
+        }
+
+        final IntBuffer directory = allocateInts(tableSize(roleNames.size()));
+        final int mask = directory.capacity() - 1;
+
+        for (int i = 0; i < directory.capacity(); i++) {
+            directory.put(i, EMPTY_SLOT);
+        }
+
+        for (int i = 0; i < roleNames.size(); i++) {
+            int slot = hash(roleNames.get(i)) & mask;
+            while (directory.get(slot) != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            directory.put(slot, recordOffsets[i]);
+        }
+
+        return new OffHeapRolesTable(roles, roleNames.size(), compiler.stringPool(), compiler.stringOffsets(), compiler.records(), directory);
+    }
+
+    /**
+     * @return true if this table was compiled from exactly this roles settings instance
+     */
+    public boolean isCompiledFrom(final Settings roles) {
+        return roles != null && source.get() == roles;
+    }
+
+    public boolean containsRole(final String roleName) {
+        return findRecord(roleName) != EMPTY_SLOT;
+    }
+
+    /**
+     * @return the settings of the role with the same keys as {@code roles.getByPrefix(roleName+".")} prefixed with a dot,
+     *         or empty settings if there is no such role
+     */
+    public Settings getRoleSettings(final String roleName) {
+        int pos = findRecord(roleName);
+
+        if (pos == EMPTY_SLOT) {
+            return Settings.EMPTY;
+        }
+
+        final Settings.Builder builder = Settings.builder();
+        final int entryCount = records.get(pos + 1);
+        pos += 2;
+
+        for (int i = 0; i < entryCount; i++) {
+            final String key = string(records.get(pos));
+            final int kind = records.get(pos + 1);
+
+            if (kind == SCALAR) {
+                builder.put(key, string(records.get(pos + 2)));
+                pos += 3;
+            } else {
+                final int count = records.get(pos + 2);
+                final List<String> values = new ArrayList<String>(count);
+                for (int j = 0; j < count; j++) {
+                    values.add(string(records.get(pos + 3 + j)));
+                }
+                builder.putList(key, values);
+                pos += 3 + count;
+            }
+        }
+
+        return builder.build();
+    }
+
+    public int getRoleCount() {
+        return roleCount;
+    }
+
+    /**
+     * @return number of bytes allocated outside of the heap
+     */
+    public long getOffHeapBytes() {
+        return (long) stringPool.capacity() + 4L * (stringOffsets.capacity() + records.capacity() + directory.capacity());
+    }
+
+    private int findRecord(final String roleName) {
+        if (roleName == null) {
+            return EMPTY_SLOT;
+        }
+
+        final byte[] name = roleName.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(roleName) & directoryMask;
+        int pos;
+
+        while ((pos = directory.get(slot)) != EMPTY_SLOT) {
+            if (stringEquals(records.get(pos), name)) {
+                return pos;
+            }
+            slot = (slot + 1) & directoryMask;
+        }
+
+        return EMPTY_SLOT;
+    }
+
+    private boolean stringEquals(final int id, final byte[] bytes) {
+        final int start = stringOffsets.get(id);
+        final int length = stringOffsets.get(id + 1) - start;
+
+        if (length != bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (stringPool.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String string(final int id) {
+        final int start = stringOffsets.get(id);
+        final byte[] bytes = new byte[stringOffsets.get(id + 1) - start];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = stringPool.get(start + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the index of the dot which ends the role name of the key, role names may contain dots
+     *         so the name ends in front of the first known role section (e.g. "my.role.cluster" belongs to "my.role")
+     */
+    private static int roleNameEnd(final String key) {
+        int dot = key.indexOf('.');
+
+        while (dot > 0) {
+            final int next = key.indexOf('.', dot + 1);
+            final String section = next == -1 ? key.substring(dot + 1) : key.substring(dot + 1, next);
+
+            if (ROLE_SECTIONS.contains(section)) {
+                return dot;
+            }
+
+            dot = next;
+        }
+
+        //unknown section, keep the first level as role name
+        return key.indexOf('.');
+    }
+
+    private static int hash(final String s) {
+        final int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSize(final int entries) {
+        int size = 16;
+        while (size < entries * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static IntBuffer allocateInts(final int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 4).asIntBuffer();
+    }
+
+    /**
+     * Collects the compiled data on the heap, only used while compiling
+     */
+    private static final class Compiler {
+
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final BytesStreamOutput pool = new BytesStreamOutput();
+        private int[] offsets = new int[1024];
+        private int[] records = new int[1024];
+        private int recordsSize = 0;
+
+        int intern(final String s) {
+            final Integer id = ids.get(s);
+
+            if (id != null) {
+                return id;
+            }
+
+            final int newId = ids.size();
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+            if (newId + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+
+            offsets[newId] = (int) pool.position();
+            pool.writeBytes(bytes, 0, bytes.length);
+            ids.put(s, newId);
+            return newId;
+        }
+
+        @SuppressWarnings("unchecked")
+        int addRole(final int nameId, final List<Tuple<String, Object>> entries) throws IOException {
+            final int start = recordsSize;
+            add(nameId);
+            add(entries.size());
+
+            for (final Tuple<String, Object> entry : entries) {
+                final Object value = entry.v2();
+
+                if (value instanceof String) {
+                    add(intern(entry.v1()));
+                    add(SCALAR);
+                    add(intern((String) value));
+                } else if (value instanceof List) {
+                    final List<Object> values = (List<Object>) value;
+                    add(intern(entry.v1()));
+                    add(LIST);
+                    add(values.size());
+                    for (final Object v : values) {
+                        add(intern(String.valueOf(v)));
+                    }
+                } else {
+                    throw new IOException("Unexpected value type " + value.getClass() + " for " + entry.v1());
+                }
+            }
+
+            return start;
+        }
+
+        private void add(final int value) {
+            if (recordsSize == records.length) {
+                records = Arrays.copyOf(records, records.length * 2);
+            }
+            records[recordsSize++] = value;
+        }
+
+        ByteBuffer stringPool() {
+            final byte[] bytes = BytesReference.toBytes(pool.bytes());
+            final int length = bytes.length;
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, length));
+            buffer.put(bytes, 0, length);
+            return buffer;
+        }
+
+        IntBuffer stringOffsets() {
+            final int count = ids.size();
+            offsets[count] = (int) pool.position();
+            final IntBuffer buffer = allocateInts(count + 1);
+            buffer.put(offsets, 0, count + 1);
+            return buffer;
+        }
+
+        IntBuffer records() {
+            final IntBuffer buffer = allocateInts(Math.max(1, recordsSize));
+            buffer.put(records, 0, recordsSize);
+            return buffer;
+        }
+    }
+}
@@ -131,6 +131,9 @@ public class PrivilegesEvaluator {
     
     private final ClusterInfoHolder clusterInfoHolder;
     //private final boolean typeSecurityDisabled = false;
+    
+    private final boolean offHeapRolesEnabled;
+    private volatile OffHeapRolesTable offHeapRolesTable;
 
     public PrivilegesEvaluator(final ClusterService clusterService, final ThreadPool threadPool, final ConfigurationRepository configurationRepository, final ActionGroupHolder ah,
             final IndexNameExpressionResolver resolver, AuditLog auditLog, final Settings settings, final PrivilegesInterceptor privilegesInterceptor,
@@ -167,6 +170,7 @@ public class PrivilegesEvaluator {
         
         sgDeniedActionPatterns = sgIndexdeniedActionPatternsList.toArray(new String[0]);
         this.clusterInfoHolder = clusterInfoHolder;
+        this.offHeapRolesEnabled = settings.getAsBoolean(ConfigConstants.SEARCHGUARD_OFFHEAP_ROLES_ENABLED, false);
         //this.typeSecurityDisabled = settings.getAsBoolean(ConfigConstants.SEARCHGUARD_DISABLE_TYPE_SECURITY, false);
         
     }
@@ -175,6 +179,48 @@ public class PrivilegesEvaluator {
         return configurationRepository.getConfiguration(ConfigConstants.CONFIGNAME_ROLES);
     }
 
+    /**
+     * @return the settings of a single role, keys are relative to the role name (e.g. ".cluster")
+     */
+    private Settings getRoleSettings(final Settings roles, final String sgRole) {
+        
+        if(!offHeapRolesEnabled) {
+            return roles.getByPrefix(sgRole);
+        }
+        
+        OffHeapRolesTable table = offHeapRolesTable;
+        
+        if(table == null || !table.isCompiledFrom(roles)) {
+            table = compileOffHeapRolesTable(roles);
+            
+            if(table == null) {
+                return roles.getByPrefix(sgRole);
+            }
+        }
+        
+        return table.getRoleSettings(sgRole);
+    }
+    
+    private synchronized OffHeapRolesTable compileOffHeapRolesTable(final Settings roles) {
+        
+        final OffHeapRolesTable current = offHeapRolesTable;
+        
+        if(current != null && current.isCompiledFrom(roles)) {
+            return current;
+        }
+        
+        try {
+            final long start = System.currentTimeMillis();
+            final OffHeapRolesTable table = OffHeapRolesTable.compile(roles);
+            offHeapRolesTable = table;
+            log.info("Compiled {} roles into off-heap table ({} bytes) in {} ms", table.getRoleCount(), table.getOffHeapBytes(), System.currentTimeMillis() - start);
+            return table;
+        } catch (Exception e) {
+            log.error("Unable to compile off-heap roles table, fall back to heap settings", e);
+            return null;
+        }
+    }
+
     private Settings getRolesMappingSettings() {
         return configurationRepository.getConfiguration(ConfigConstants.CONFIGNAME_ROLES_MAPPING);
     }
@@ -352,7 +398,6 @@ public class PrivilegesEvaluator {
         }
         
         final Settings config = getConfigSettings();
-        final Settings roles = getRolesSettings();
 
         boolean clusterLevelPermissionRequired = false;
         
@@ -433,7 +478,8 @@ public class PrivilegesEvaluator {
             }
         }
 
-        final Set<String> sgRoles = mapSgRoles(user, caller);
+        final EffectivePermissions effectivePermissions = getEffectivePermissions(user, caller);
+        final Set<String> sgRoles = effectivePermissions.getSgRoles();
        
         if (log.isDebugEnabled()) {
             log.debug("mapped roles for {}: {}", user.getName(), sgRoles);
@@ -441,7 +487,7 @@ public class PrivilegesEvaluator {
         
         if(privilegesInterceptor.getClass() != PrivilegesInterceptor.class) {
         
-            final Boolean replaceResult = privilegesInterceptor.replaceKibanaIndex(request, action, user, config, requestedResolvedIndices, mapTenants(user, caller));
+            final Boolean replaceResult = privilegesInterceptor.replaceKibanaIndex(request, action, user, config, requestedResolvedIndices, getTenants(effectivePermissions, user));
     
             if(log.isDebugEnabled()) {
                 log.debug("Result from privileges interceptor: {}", replaceResult);
@@ -514,7 +560,7 @@ public class PrivilegesEvaluator {
 
         for (final Iterator<String> iterator = sgRoles.iterator(); iterator.hasNext();) {
             final String sgRole = (String) iterator.next();
-            final Settings sgRoleSettings = roles.getByPrefix(sgRole);
+            final Settings sgRoleSettings = getRoleSettings(effectivePermissions, sgRole);
 
             if (sgRoleSettings.names().isEmpty()) {
                 
@@ -571,12 +617,7 @@ public class PrivilegesEvaluator {
                 }
             }
 
-            final Map<String, Settings> permittedAliasesIndices0 = sgRoleSettings.getGroups(".indices");
-            final Map<String, Settings> permittedAliasesIndices = new HashMap<String, Settings>(permittedAliasesIndices0.size());
-            
-            for (String origKey : permittedAliasesIndices0.keySet()) {
-                permittedAliasesIndices.put(replaceProperties(origKey, user), permittedAliasesIndices0.get(origKey));
-            }
+            final Map<String, Settings> permittedAliasesIndices = getPermittedAliasesIndices(effectivePermissions, user, sgRole, false);
 
             /*
             sg_role_starfleet:
@@ -612,8 +653,8 @@ public class PrivilegesEvaluator {
                 final String resolvedRole = sgRole;
                 final String indexPattern = permittedAliasesIndex;
                 
-                String dls = roles.get(resolvedRole+".indices."+indexPattern+"._dls_");
-                final List<String> fls = roles.getAsList(resolvedRole+".indices."+indexPattern+"._fls_");
+                String dls = sgRoleSettings.get(".indices."+indexPattern+"._dls_");
+                final List<String> fls = sgRoleSettings.getAsList(".indices."+indexPattern+"._fls_");
 
                 //only when dls and fls != null
                 String[] concreteIndices = new String[0];
@@ -929,7 +970,8 @@ public class PrivilegesEvaluator {
         }
 
         // Check if the user has the required role to perform the snapshot restore operation
-        final Set<String> sgRoles = mapSgRoles(user, caller);
+        final EffectivePermissions effectivePermissions = getEffectivePermissions(user, caller);
+        final Set<String> sgRoles = effectivePermissions.getSgRoles();
 
         if (log.isDebugEnabled()) {
             log.debug("mapped roles: {}", sgRoles);
@@ -945,11 +987,9 @@ public class PrivilegesEvaluator {
             }
         }
         
-        final Settings roles = getRolesSettings();
-
         for (final Iterator<String> iterator = sgRoles.iterator(); iterator.hasNext();) {
             final String sgRole = iterator.next();
-            final Settings sgRoleSettings = roles.getByPrefix(sgRole);
+            final Settings sgRoleSettings = getRoleSettings(effectivePermissions, sgRole);
 
             if (sgRoleSettings.names().isEmpty()) {
                 if (log.isDebugEnabled()) {
@@ -981,12 +1021,7 @@ public class PrivilegesEvaluator {
             }
 
             if (checkSnapshotRestoreWritePrivileges) {
-                final Map<String, Settings> permittedAliasesIndices0 = sgRoleSettings.getGroups(".indices", true);
-                final Map<String, Settings> permittedAliasesIndices = new HashMap<String, Settings>(permittedAliasesIndices0.size());
-
-                for (final String origKey : permittedAliasesIndices0.keySet()) {
-                    permittedAliasesIndices.put(replaceProperties(origKey, user), permittedAliasesIndices0.get(origKey));
-                }
+                final Map<String, Settings> permittedAliasesIndices = getPermittedAliasesIndices(effectivePermissions, user, sgRole, true);
 
                 for (final String permittedAliasesIndex : permittedAliasesIndices.keySet()) {
                     if (log.isDebugEnabled()) {
@@ -1030,7 +1065,78 @@ public class PrivilegesEvaluator {
 
     public Set<String> mapSgRoles(final User user, final TransportAddress caller) {
         
+        if(user == null) {
+            return Collections.emptySet();
+        }
+        
+        return getEffectivePermissions(user, caller).getSgRoles();
+    }
+    
+    public Map<String, Boolean> mapTenants(final User user, final TransportAddress caller) {
+        
+        if(user == null) {
+            return Collections.emptyMap();
+        }
+        
+        return getTenants(getEffectivePermissions(user, caller), user);
+    }
+    
+    /**
+     * Returns the effective permissions of the user. If the user is the authenticated user of the current
+     * request the permissions attached to its session (see BackendRegistry) are reused as long as the roles 
+     * and rolesmapping configuration did not change and the request comes from the same host.
+     * For all other users only the sg roles are mapped, everything else is computed when needed.
+     */
+    private EffectivePermissions getEffectivePermissions(final User user, final TransportAddress caller) {
+        
+        final Settings roles = getRolesSettings();
         final Settings rolesMapping = getRolesMappingSettings();
+        final EffectivePermissions.Holder holder = user == (User) this.threadContext.getTransient(ConfigConstants.SG_USER)?
+                (EffectivePermissions.Holder) this.threadContext.getTransient(ConfigConstants.SG_EFFECTIVE_PERMISSIONS):null;
+        
+        if(holder != null) {
+            final EffectivePermissions cached = holder.get();
+            
+            if(cached != null && cached.isValidFor(roles, rolesMapping, caller)) {
+                return cached;
+            }
+        }
+        
+        final EffectivePermissions effectivePermissions = new EffectivePermissions(roles, rolesMapping, caller, 
+                mapSgRoles0(user, caller, rolesMapping), holder != null);
+        
+        if(holder != null) {
+            holder.set(effectivePermissions);
+        }
+        
+        return effectivePermissions;
+    }
+    
+    private Settings getRoleSettings(final EffectivePermissions effectivePermissions, final String sgRole) {
+        return effectivePermissions.getRoleSettings(sgRole, 
+                r -> effectivePermissions.getRoles() == null?Settings.EMPTY:getRoleSettings(effectivePermissions.getRoles(), r));
+    }
+    
+    private Map<String, Settings> getPermittedAliasesIndices(final EffectivePermissions effectivePermissions, final User user, 
+            final String sgRole, final boolean ignoreNonGroupedSettings) {
+        return effectivePermissions.getPermittedAliasesIndices(sgRole, ignoreNonGroupedSettings, r -> {
+            final Map<String, Settings> permittedAliasesIndices0 = getRoleSettings(effectivePermissions, r).getGroups(".indices", ignoreNonGroupedSettings);
+            final Map<String, Settings> permittedAliasesIndices = new HashMap<String, Settings>(permittedAliasesIndices0.size());
+
+            for (final String origKey : permittedAliasesIndices0.keySet()) {
+                permittedAliasesIndices.put(replaceProperties(origKey, user), permittedAliasesIndices0.get(origKey));
+            }
+            
+            return Collections.unmodifiableMap(permittedAliasesIndices);
+        });
+    }
+    
+    private Map<String, Boolean> getTenants(final EffectivePermissions effectivePermissions, final User user) {
+        return effectivePermissions.getTenants(() -> mapTenants0(user, effectivePermissions));
+    }
+    
+    private Set<String> mapSgRoles0(final User user, final TransportAddress caller, final Settings rolesMapping) {
+        
         final Set<String> sgRoles = new TreeSet<String>();
         
         if(user == null) {
@@ -1047,15 +1153,18 @@ public class PrivilegesEvaluator {
         
         if(rolesMapping != null && ((rolesMappingResolution == ConfigConstants.RolesMappingResolution.BOTH 
                 || rolesMappingResolution == ConfigConstants.RolesMappingResolution.MAPPING_ONLY))) {
+            //copied once and not for every mapping
+            final String[] backendRoles = user.getRoles().toArray(new String[0]);
+            
             for (final String roleMap : rolesMapping.names()) {
                 final Settings roleMapSettings = rolesMapping.getByPrefix(roleMap);
                 
-                if (WildcardMatcher.allPatternsMatched(roleMapSettings.getAsList(".and_backendroles", Collections.emptyList()).toArray(new String[0]), user.getRoles().toArray(new String[0]))) {
+                if (WildcardMatcher.allPatternsMatched(roleMapSettings.getAsList(".and_backendroles", Collections.emptyList()).toArray(new String[0]), backendRoles)) {
                     sgRoles.add(roleMap);
                     continue;
                 }
                 
-                if (WildcardMatcher.matchAny(roleMapSettings.getAsList(".backendroles", Collections.emptyList()).toArray(new String[0]), user.getRoles().toArray(new String[0]))) {
+                if (WildcardMatcher.matchAny(roleMapSettings.getAsList(".backendroles", Collections.emptyList()).toArray(new String[0]), backendRoles)) {
                     sgRoles.add(roleMap);
                     continue;
                 }
@@ -1082,17 +1191,13 @@ public class PrivilegesEvaluator {
 
     }
     
-    public Map<String, Boolean> mapTenants(final User user, final TransportAddress caller) {
-        
-        if(user == null) {
-            return Collections.emptyMap();
-        }
+    private Map<String, Boolean> mapTenants0(final User user, final EffectivePermissions effectivePermissions) {
         
         final Map<String, Boolean> result = new HashMap<String, Boolean>();
         result.put(user.getName(), true);
         
-        for(String sgRole: mapSgRoles(user, caller)) {
-            Settings tenants = getRolesSettings().getByPrefix(sgRole+".tenants.");
+        for(String sgRole: effectivePermissions.getSgRoles()) {
+            Settings tenants = getRoleSettings(effectivePermissions, sgRole).getByPrefix(".tenants.");
             
             if(tenants != null) {
                 for(String tenant: tenants.names()) {
@@ -1637,24 +1742,20 @@ public class PrivilegesEvaluator {
     }
     
     public boolean kibanaIndexReadonly(final User user, final TransportAddress caller) {
-        final Set<String> sgRoles = mapSgRoles(user, caller);
+        final EffectivePermissions effectivePermissions = getEffectivePermissions(user, caller);
+        final Set<String> sgRoles = effectivePermissions.getSgRoles();
         
         final String kibanaIndex = kibanaIndex();
         
         for (final Iterator<String> iterator = sgRoles.iterator(); iterator.hasNext();) {
             final String sgRole = iterator.next();
-            final Settings sgRoleSettings = getRolesSettings().getByPrefix(sgRole);
+            final Settings sgRoleSettings = getRoleSettings(effectivePermissions, sgRole);
             
             if (sgRoleSettings.names().isEmpty()) {
                 continue;
             }
 
-            final Map<String, Settings> permittedAliasesIndices0 = sgRoleSettings.getGroups(".indices", true);
-            final Map<String, Settings> permittedAliasesIndices = new HashMap<String, Settings>(permittedAliasesIndices0.size());
-
-            for (String origKey : permittedAliasesIndices0.keySet()) {
-               permittedAliasesIndices.put(replaceProperties(origKey, user), permittedAliasesIndices0.get(origKey));
-            }
+            final Map<String, Settings> permittedAliasesIndices = getPermittedAliasesIndices(effectivePermissions, user, sgRole, true);
             
             for(String indexPattern: permittedAliasesIndices.keySet()) {                
                 if(WildcardMatcher.match(indexPattern, kibanaIndex)) {
@@ -26,12 +26,17 @@ import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.IndicesRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.search.MultiSearchRequest;
 import org.elasticsearch.action.support.ActionFilter;
 import org.elasticsearch.action.support.ActionFilterChain;
+import org.elasticsearch.action.termvectors.MultiTermVectorsRequest;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.tasks.Task;
@@ -47,6 +52,7 @@ import com.floragunn.searchguard.configuration.PrivilegesEvaluator;
 import com.floragunn.searchguard.configuration.PrivilegesEvaluator.PrivEvalResponse;
 import com.floragunn.searchguard.support.ConfigConstants;
 import com.floragunn.searchguard.support.HeaderHelper;
+import com.floragunn.searchguard.support.WildcardMatcher;
 import com.floragunn.searchguard.user.User;
 
 public class SearchGuardFilter implements ActionFilter {
@@ -59,15 +65,23 @@ public class SearchGuardFilter implements ActionFilter {
     private final AuditLog auditLog;
     private final ThreadContext threadContext;
     private final ClusterService cs;
+    private final ThreadPool threadPool;
+    private final boolean offloadEnabled;
+    private final int offloadMinIndices;
+    private final int offloadMinSubRequests;
     
     public SearchGuardFilter(final PrivilegesEvaluator evalp, final AdminDNs adminDns,
-            DlsFlsRequestValve dlsFlsValve, AuditLog auditLog, ThreadPool threadPool, ClusterService cs) {
+            DlsFlsRequestValve dlsFlsValve, AuditLog auditLog, ThreadPool threadPool, ClusterService cs, final Settings settings) {
         this.evalp = evalp;
         this.adminDns = adminDns;
         this.dlsFlsValve = dlsFlsValve;
         this.auditLog = auditLog;
+        this.threadPool = threadPool;
         this.threadContext = threadPool.getThreadContext();
         this.cs = cs;
+        this.offloadEnabled = settings.getAsBoolean(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_ENABLED, false);
+        this.offloadMinIndices = settings.getAsInt(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_MIN_INDICES, 100);
+        this.offloadMinSubRequests = settings.getAsInt(ConfigConstants.SEARCHGUARD_AUTHZ_OFFLOAD_MIN_SUB_REQUESTS, 100);
     }
 
     @Override
@@ -186,7 +200,42 @@ public class SearchGuardFilter implements ActionFilter {
                 listener.onFailure(new ElasticsearchSecurityException("No user found for "+action, RestStatus.INTERNAL_SERVER_ERROR));
                 return;
             }
-           
+            
+            if(offloadEnabled && threadContext.getTransient(ConfigConstants.SG_AUTHZ_OFFLOADED) == null 
+                    && isExpensiveEvaluation(action, request)) {
+                
+                if (log.isDebugEnabled()) {
+                    log.debug("Evaluate permissions for {} on {} thread pool", action, ConfigConstants.SG_AUTHZ_THREAD_POOL_NAME);
+                }
+                
+                threadPool.executor(ConfigConstants.SG_AUTHZ_THREAD_POOL_NAME).execute(new AbstractRunnable() {
+                    
+                    @Override
+                    protected void doRun() throws Exception {
+                        threadContext.putTransient(ConfigConstants.SG_AUTHZ_OFFLOADED, Boolean.TRUE);
+                        evaluateAndProceed(user, task, action, request, listener, chain);
+                    }
+                    
+                    @Override
+                    public void onFailure(Exception e) {
+                        listener.onFailure(e);
+                    }
+                });
+                return;
+            }
+            
+            evaluateAndProceed(user, task, action, request, listener, chain);
+            
+        } catch (Throwable e) {
+            log.error("Unexpected exception "+e, e);
+            listener.onFailure(new ElasticsearchSecurityException("Unexpected exception " + action, RestStatus.INTERNAL_SERVER_ERROR));
+            return;
+        }
+    }
+    
+    private <Request extends ActionRequest, Response extends ActionResponse> void evaluateAndProceed(final User user, final Task task, final String action, 
+            final Request request, final ActionListener<Response> listener, final ActionFilterChain<Request, Response> chain) {
+        try {
             final PrivilegesEvaluator eval = evalp;
     
             if (!eval.isInitialized()) {
@@ -222,6 +271,50 @@ public class SearchGuardFilter implements ActionFilter {
         }
     }
     
+    /**
+     * Cheap estimation if the evaluation of a request needs to resolve a lot of indices or sub requests.
+     */
+    private boolean isExpensiveEvaluation(final String action, final ActionRequest request) {
+        
+        if(action.startsWith("cluster:admin/snapshot/restore")) {
+            return true;
+        }
+        
+        int subRequests = 0;
+        
+        if(request instanceof BulkRequest) {
+            subRequests = ((BulkRequest) request).requests().size();
+        } else if(request instanceof MultiGetRequest) {
+            subRequests = ((MultiGetRequest) request).getItems().size();
+        } else if(request instanceof MultiSearchRequest) {
+            subRequests = ((MultiSearchRequest) request).requests().size();
+        } else if(request instanceof MultiTermVectorsRequest) {
+            subRequests = ((MultiTermVectorsRequest) request).getRequests().size();
+        }
+        
+        if(subRequests >= offloadMinSubRequests) {
+            return true;
+        }
+        
+        if(request instanceof IndicesRequest) {
+            final String[] indices = ((IndicesRequest) request).indices();
+            
+            if(indices == null || indices.length == 0) {
+                return cs.state().metaData().getIndices().size() >= offloadMinIndices;
+            }
+            
+            for(int i=0; i<indices.length; i++) {
+                if(indices[i] == null || MetaData.ALL.equals(indices[i]) || WildcardMatcher.containsWildcard(indices[i])) {
+                    return cs.state().metaData().getIndices().size() >= offloadMinIndices;
+                }
+            }
+            
+            return indices.length >= offloadMinIndices;
+        }
+        
+        return false;
+    }
+    
     private static boolean isUserAdmin(User user, final AdminDNs adminDns) {
         if (user != null && adminDns.isAdmin(user.getName())) {
             return true;
@@ -18,6 +18,8 @@
 package com.floragunn.searchguard.http;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -55,6 +57,11 @@ public class HTTPBasicAuthenticator implements HTTPAuthenticator {
         return HTTPHelper.extractCredentials(authorizationHeader, log);
     }
 
+    @Override
+    public Set<String> getRequiredHeaders() {
+        return Collections.singleton("Authorization");
+    }
+
     @Override
     public boolean reRequestAuthentication(final RestChannel channel, AuthCredentials creds) {
         final BytesRestResponse wwwAuthenticateResponse = new BytesRestResponse(RestStatus.UNAUTHORIZED, "Unauthorized");
@@ -88,6 +88,11 @@ public class HTTPClientCertAuthenticator implements HTTPAuthenticator {
         }
     }
 
+    @Override
+    public boolean requiresClientCertificate() {
+        return true;
+    }
+
     @Override
     public boolean reRequestAuthentication(final RestChannel channel, AuthCredentials creds) {
         return false;
@@ -18,6 +18,8 @@
 package com.floragunn.searchguard.http;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
 
 import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.common.Strings;
@@ -74,6 +76,12 @@ public class HTTPProxyAuthenticator implements HTTPAuthenticator {
         }
     }
 
+    @Override
+    public Set<String> getRequiredHeaders() {
+        final String userHeader = settings.get("user_header");
+        return Strings.isNullOrEmpty(userHeader) ? null : Collections.singleton(userHeader);
+    }
+
     @Override
     public boolean reRequestAuthentication(final RestChannel channel, AuthCredentials creds) {
         return false;
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+
+import com.floragunn.searchguard.auth.AuthDomain;
+import com.floragunn.searchguard.auth.HTTPAuthenticator;
+import com.floragunn.searchguard.user.AuthCredentials;
+import com.floragunn.searchguard.user.User;
+
+/**
+ * Short lived session tokens which are issued after a successful REST login and verified locally (HMAC-SHA256)
+ * without asking a cache or an authentication backend again.
+ * <p/>
+ * Not configured as an auth domain, the {@link com.floragunn.searchguard.auth.BackendRegistry} creates one instance
+ * per sg_config version from {@code searchguard.dynamic.http.session_token}. The signing key is derived from the
+ * configured signing_key and all configuration types which affect authentication or authorization (config, internalusers,
+ * roles, rolesmapping, actiongroups), so all nodes accept the same tokens and a change of any of them invalidates all tokens.
+ * Without a signing_key every node uses its own random key: tokens are then only accepted by the issuing node
+ * (and only until its next configuration change).
+ * <p/>
+ * A token is only issued if the request carries the token header without a valid token (expired, issued for an older
+ * config or any other value like "new" to ask for one) or if issue_on_every_login is enabled.
+ * <p/>
+ * Token format: base64url(payload).base64url(hmac(payload)) with payload: version, expiry, auth domain name and order,
+ * user, backend roles. Strings are written as length prefixed UTF-8 bytes. Custom attributes of the user are not part of
+ * the token, the token is sent with every request and is only signed, not encrypted.
+ */
+public class HTTPSessionTokenAuthenticator implements HTTPAuthenticator {
+
+    public static final String DEFAULT_HEADER = "sg_session_token";
+    public static final String AUTH_DOMAIN_ATTRIBUTE = "attr.session_token.auth_domain";
+    public static final String AUTH_DOMAIN_ORDER_ATTRIBUTE = "attr.session_token.auth_domain_order";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 3;
+
+    protected final Logger log = LogManager.getLogger(this.getClass());
+    private final String header;
+    private final long ttlMillis;
+    private final boolean issueOnEveryLogin;
+    private final SecretKeySpec signingKey;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param settings the session_token settings (header, ttl_seconds, issue_on_every_login)
+     * @param signingKey the key to sign and verify tokens
+     */
+    public HTTPSessionTokenAuthenticator(final Settings settings, final byte[] signingKey) {
+        this.header = settings.get("header", DEFAULT_HEADER);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(settings.getAsLong("ttl_seconds", 300L));
+        this.issueOnEveryLogin = settings.getAsBoolean("issue_on_every_login", false);
+        this.signingKey = new SecretKeySpec(signingKey, MAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Derive the signing key for one version of the configuration
+     *
+     * @param configuredKey the signing_key from sg_config, if null a random key is used and tokens are only valid on this node
+     * @param configs the configuration types which affect authentication or authorization (by type)
+     */
+    public static byte[] deriveSigningKey(final String configuredKey, final Map<String, Settings> configs) {
+        if (Strings.isNullOrEmpty(configuredKey)) {
+            final byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            return key;
+        }
+
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(configuredKey.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            //sorted, the key must be identical on all nodes with the same configuration
+            for (final Entry<String, Settings> config : new TreeMap<String, Settings>(configs).entrySet()) {
+                mac.update(config.getKey().getBytes(StandardCharsets.UTF_8));
+                mac.update((byte) 0);
+                mac.update(config.getValue().toString().getBytes(StandardCharsets.UTF_8));
+                mac.update((byte) 0);
+            }
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new ElasticsearchSecurityException("Unable to derive session token signing key", e);
+        }
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * Called after a successful login with the credentials of an auth domain, a request with a valid token
+     * does not get that far
+     *
+     * @return true if a token should be issued for this request
+     */
+    public boolean shouldIssue(final RestRequest request) {
+        return issueOnEveryLogin || request.header(header) != null;
+    }
+
+    /**
+     * @param authDomain the auth domain which authenticated the user (used for impersonation)
+     * @return a signed token for the user which expires after ttl_seconds
+     */
+    public String issue(final User user, final AuthDomain authDomain) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(System.currentTimeMillis() + ttlMillis);
+            writeString(out, authDomain.getName());
+            out.writeInt(authDomain.getOrder());
+            writeString(out, user.getName());
+
+            final Set<String> roles = user.getRoles();
+            out.writeInt(roles.size());
+            for (final String role : roles) {
+                writeString(out, role);
+            }
+        } catch (IOException e) {
+            throw new ElasticsearchSecurityException("Unable to issue session token", e);
+        }
+
+        final byte[] payload = bytes.toByteArray();
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(macs.get().doFinal(payload));
+    }
+
+    /**
+     * @return the credentials (user, backend roles and the auth domain in the attributes
+     * {@link #AUTH_DOMAIN_ATTRIBUTE} and {@link #AUTH_DOMAIN_ORDER_ATTRIBUTE}) of a valid token, 
+     * null if there is no token or it is invalid or expired
+     */
+    @Override
+    public AuthCredentials extractCredentials(final RestRequest request, final ThreadContext threadContext) {
+        final String token = request.header(header);
+
+        if (Strings.isNullOrEmpty(token)) {
+            return null;
+        }
+
+        final int separator = token.indexOf('.');
+
+        if (separator <= 0) {
+            return null;
+        }
+
+        try {
+            final Base64.Decoder decoder = Base64.getUrlDecoder();
+            final byte[] payload = decoder.decode(token.substring(0, separator));
+            final byte[] signature = decoder.decode(token.substring(separator + 1));
+
+            if (!MessageDigest.isEqual(signature, macs.get().doFinal(payload))) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Session token has an invalid signature (issued for an older config?)");
+                }
+                return null;
+            }
+
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                if (in.readByte() != VERSION || in.readLong() < System.currentTimeMillis()) {
+                    return null;
+                }
+
+                final String authDomain = readString(in);
+                final int authDomainOrder = in.readInt();
+                final String username = readString(in);
+
+                final String[] roles = new String[readCount(in)];
+                for (int i = 0; i < roles.length; i++) {
+                    roles[i] = readString(in);
+                }
+
+                final AuthCredentials credentials = new AuthCredentials(username, roles);
+                credentials.addAttribute(AUTH_DOMAIN_ATTRIBUTE, authDomain);
+                credentials.addAttribute(AUTH_DOMAIN_ORDER_ATTRIBUTE, String.valueOf(authDomainOrder));
+                return credentials.markComplete();
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Malformed session token: {}", e.toString());
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public Set<String> getRequiredHeaders() {
+        return Collections.singleton(header);
+    }
+
+    @Override
+    public boolean reRequestAuthentication(final RestChannel channel, final AuthCredentials credentials) {
+        return false;
+    }
+
+    @Override
+    public String getType() {
+        return "session_token";
+    }
+
+    //not writeUTF(), it is limited to 64 KB (e.g. large attributes of a JWT)
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readCount(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Invalid length " + count);
+        }
+
+        return count;
+    }
+
+    private Mac newMac() {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(signingKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new ElasticsearchSecurityException("Unable to initialize session token mac", e);
+        }
+    }
+}
@@ -74,6 +74,9 @@ public class SearchGuardHealthAction extends BaseRestHandler {
                     builder.field("message", message);
                     builder.field("mode", mode);
                     builder.field("status", status);
+                    if(registry.isInitialized()) {
+                        builder.field("auth_domains_status", registry.getAuthDomainsStatus());
+                    }
                     builder.endObject();
                     response = new BytesRestResponse(restStatus, builder);
 
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import com.floragunn.searchguard.auth.BackendRegistry;
+import com.floragunn.searchguard.configuration.AdminDNs;
+import com.floragunn.searchguard.configuration.PrivilegesEvaluator;
+import com.floragunn.searchguard.support.ConfigConstants;
+import com.floragunn.searchguard.user.User;
+
+/**
+ * Node local statistics of the authentication/authorization layer (cache sizes, hit rates, ...)
+ * <p/>
+ * Only available for admin certificates and for users which are mapped to one of the Search Guard roles
+ * configured in {@code searchguard.stats.roles_enabled}.
+ */
+public class SearchGuardStatsAction extends BaseRestHandler {
+
+    private final BackendRegistry registry;
+    private final PrivilegesEvaluator evaluator;
+    private final AdminDNs adminDns;
+    private final ThreadContext threadContext;
+    private final Set<String> rolesEnabled;
+    private final String nodeName;
+
+    public SearchGuardStatsAction(final Settings settings, final RestController controller, final BackendRegistry registry,
+            final PrivilegesEvaluator evaluator, final AdminDNs adminDns, final ThreadPool threadPool) {
+        super(settings);
+        this.registry = registry;
+        this.evaluator = evaluator;
+        this.adminDns = adminDns;
+        this.threadContext = threadPool.getThreadContext();
+        this.rolesEnabled = new HashSet<String>(settings.getAsList(ConfigConstants.SEARCHGUARD_STATS_ROLES_ENABLED, 
+                Collections.singletonList("sg_all_access")));
+        this.nodeName = Node.NODE_NAME_SETTING.get(settings);
+        controller.registerHandler(GET, "/_searchguard/stats", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        return new RestChannelConsumer() {
+
+            @Override
+            public void accept(RestChannel channel) throws Exception {
+                XContentBuilder builder = channel.newBuilder();
+                BytesRestResponse response = null;
+                try {
+                    builder.startObject();
+                    if(isAllowed()) {
+                        builder.field("node_name", nodeName);
+                        builder.field("initialized", registry.isInitialized());
+                        builder.field("stats", registry.getStatistics());
+                        builder.endObject();
+                        response = new BytesRestResponse(RestStatus.OK, builder);
+                    } else {
+                        builder.field("status", RestStatus.FORBIDDEN.name());
+                        builder.field("message", "No permission to access the Search Guard stats");
+                        builder.endObject();
+                        response = new BytesRestResponse(RestStatus.FORBIDDEN, builder);
+                    }
+                } finally {
+                    builder.close();
+                }
+
+                channel.sendResponse(response);
+            }
+        };
+    }
+
+    private boolean isAllowed() {
+        if(adminDns.isAdmin((String) threadContext.getTransient(ConfigConstants.SG_SSL_PRINCIPAL))) {
+            return true;
+        }
+        
+        final User user = (User) threadContext.getTransient(ConfigConstants.SG_USER);
+        
+        if(user == null) {
+            return false;
+        }
+        
+        final TransportAddress remoteAddress = (TransportAddress) threadContext.getTransient(ConfigConstants.SG_REMOTE_ADDRESS);
+        return !Collections.disjoint(evaluator.mapSgRoles(user, remoteAddress), rolesEnabled);
+    }
+
+    @Override
+    public String getName() {
+        return "Search Guard Stats";
+    }
+}
@@ -68,6 +68,9 @@ public class ConfigConstants {
     
     public static final String SG_USER = SG_CONFIG_PREFIX+"user";
     public static final String SG_USER_HEADER = SG_CONFIG_PREFIX+"user_header";
+    public static final String SG_EFFECTIVE_PERMISSIONS = SG_CONFIG_PREFIX+"effective_permissions";
+    //set when the permissions of a request are evaluated on the authz thread pool, its sub requests are not offloaded again
+    public static final String SG_AUTHZ_OFFLOADED = SG_CONFIG_PREFIX+"authz_offloaded";
     
     public static final String SG_XFF_DONE = SG_CONFIG_PREFIX+"xff_done";
 
@@ -159,11 +162,43 @@ public class ConfigConstants {
     public static final String SEARCHGUARD_AUDIT_ENABLE_TRANSPORT = "searchguard.audit.enable_transport";
     public static final String SEARCHGUARD_DISABLED = "searchguard.disabled";
     public static final String SEARCHGUARD_CACHE_TTL_MINUTES = "searchguard.cache.ttl_minutes";
+    public static final String SEARCHGUARD_CACHE_MAX_SIZE = "searchguard.cache.max_size";
+    public static final String SEARCHGUARD_CACHE_REFRESH_AFTER_WRITE_MINUTES = "searchguard.cache.refresh_after_write_minutes";
+    public static final String SEARCHGUARD_CACHE_NEGATIVE_TTL_SECONDS = "searchguard.cache.negative_ttl_seconds";
+    public static final String SEARCHGUARD_CACHE_AUTHZ_TTL_MINUTES = "searchguard.cache.authz.ttl_minutes";
+    public static final String SEARCHGUARD_CACHE_AUTHZ_MAX_SIZE = "searchguard.cache.authz.max_size";
+    public static final String SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_ENABLED = "searchguard.cache.authz.peer_lookup.enabled";
+    public static final String SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_MAX_AGE_SECONDS = "searchguard.cache.authz.peer_lookup.max_age_seconds";
+    public static final String SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_TIMEOUT_MILLIS = "searchguard.cache.authz.peer_lookup.timeout_ms";
+    public static final String SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_MAX_NODES = "searchguard.cache.authz.peer_lookup.max_nodes";
+    public static final String SEARCHGUARD_CACHE_WARMUP_ENABLED = "searchguard.cache.warmup.enabled";
+    public static final String SEARCHGUARD_CACHE_WARMUP_MAX_PRINCIPALS = "searchguard.cache.warmup.max_principals";
+    public static final String SEARCHGUARD_CACHE_WARMUP_RECENT_MINUTES = "searchguard.cache.warmup.recent_minutes";
+    public static final String SEARCHGUARD_AUTH_RATE_LIMIT_IP_PREFIX = "searchguard.auth.rate_limit.ip";
+    public static final String SEARCHGUARD_AUTH_RATE_LIMIT_USERNAME_PREFIX = "searchguard.auth.rate_limit.username";
     public static final String SEARCHGUARD_ALLOW_UNSAFE_DEMOCERTIFICATES = "searchguard.allow_unsafe_democertificates";
     public static final String SEARCHGUARD_ALLOW_DEFAULT_INIT_SGINDEX = "searchguard.allow_default_init_sgindex";
 
     public static final String SEARCHGUARD_ROLES_MAPPING_RESOLUTION = "searchguard.roles_mapping_resolution";
     
+    public static final String SG_AUTHZ_THREAD_POOL_NAME = "searchguard_authz";
+    public static final String SEARCHGUARD_AUTHZ_THREAD_POOL_PREFIX = "searchguard.authz.thread_pool";
+    public static final String SG_BCRYPT_THREAD_POOL_NAME = "searchguard_bcrypt";
+    public static final String SEARCHGUARD_BCRYPT_THREAD_POOL_PREFIX = "searchguard.bcrypt.thread_pool";
+    public static final String SEARCHGUARD_BCRYPT_OFFLOAD_ENABLED = "searchguard.bcrypt.offload.enabled";
+    public static final String SG_AUTH_BACKEND_THREAD_POOL_NAME = "searchguard_auth_backend";
+    public static final String SEARCHGUARD_AUTH_BACKEND_THREAD_POOL_PREFIX = "searchguard.auth_backend.thread_pool";
+    public static final String SEARCHGUARD_TRANSPORT_HEADER_CACHE_MAX_SIZE = "searchguard.transport.header_cache.max_size";
+    public static final String SEARCHGUARD_STATS_ROLES_ENABLED = "searchguard.stats.roles_enabled";
+    public static final String SEARCHGUARD_AUTHZ_OFFLOAD_ENABLED = "searchguard.authz.offload.enabled";
+    public static final String SEARCHGUARD_AUTHZ_OFFLOAD_MIN_INDICES = "searchguard.authz.offload.min_indices";
+    public static final String SEARCHGUARD_AUTHZ_OFFLOAD_MIN_SUB_REQUESTS = "searchguard.authz.offload.min_sub_requests";
+    public static final String SEARCHGUARD_OFFHEAP_ROLES_ENABLED = "searchguard.offheap_roles.enabled";
+    public static final String SEARCHGUARD_INTERNALUSERS_ON_DEMAND_ENABLED = "searchguard.internalusers.on_demand.enabled";
+    public static final String SEARCHGUARD_INTERNALUSERS_ON_DEMAND_CACHE_MAX_SIZE = "searchguard.internalusers.on_demand.cache_max_size";
+    public static final String SEARCHGUARD_INTERNALUSERS_ON_DEMAND_CACHE_TTL_SECONDS = "searchguard.internalusers.on_demand.cache_ttl_seconds";
+    public static final String SEARCHGUARD_INTERNALUSERS_ON_DEMAND_NEGATIVE_CACHE_TTL_SECONDS = "searchguard.internalusers.on_demand.negative_cache_ttl_seconds";
+    
     public enum RolesMappingResolution {
         MAPPING_ONLY,
         BACKENDROLES_ONLY,
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.transport;
+
+import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.settings.Settings;
+
+import com.floragunn.searchguard.support.Base64Helper;
+import com.floragunn.searchguard.support.ConfigConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * The coordinating node sends the same serialized user and remote address headers with every shard level request of
+ * a search or bulk (and with every request of the same user). The receiving node deserializes each distinct header
+ * value only once.
+ * <p/>
+ * Only the java deserialization is saved, the headers are trusted and evaluated exactly as before. The key is the
+ * whole header value, so a cached object is only returned for byte identical headers.
+ * The deserialized objects are shared, they must not be modified by the receiving node.
+ */
+final class DeserializedHeaderCache {
+
+    private final Cache<String, Serializable> cache;
+
+    DeserializedHeaderCache(final Settings settings) {
+        final long maxSize = settings.getAsLong(ConfigConstants.SEARCHGUARD_TRANSPORT_HEADER_CACHE_MAX_SIZE, 1000L);
+        this.cache = maxSize <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+    }
+
+    Serializable deserialize(final String header) {
+        if (cache == null) {
+            return Base64Helper.deserializeObject(header);
+        }
+
+        try {
+            return cache.get(header, () -> Base64Helper.deserializeObject(header));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw e.getCause() instanceof ElasticsearchException ? (ElasticsearchException) e.getCause() : new ElasticsearchException(e.getCause());
+        }
+    }
+}
@@ -59,6 +59,7 @@ public class SearchGuardInterceptor {
     private final ClusterService cs;
     private final Settings settings;
     private final SslExceptionHandler sslExceptionHandler;
+    private final DeserializedHeaderCache headerCache;
 
     public SearchGuardInterceptor(final Settings settings, 
             final ThreadPool threadPool, final BackendRegistry backendRegistry, 
@@ -75,12 +76,13 @@ public class SearchGuardInterceptor {
         this.cs = cs;
         this.settings = settings;
         this.sslExceptionHandler = sslExceptionHandler;
+        this.headerCache = new DeserializedHeaderCache(settings);
     }
 
     public <T extends TransportRequest> SearchGuardRequestHandler<T> getHandler(String action, 
             TransportRequestHandler<T> actualHandler) {
         return new SearchGuardRequestHandler<T>(action, actualHandler, threadPool, backendRegistry, auditLog, 
-                principalExtractor, requestEvalProvider, cs, sslExceptionHandler);
+                principalExtractor, requestEvalProvider, cs, sslExceptionHandler, headerCache);
     }
 
     
@@ -32,6 +32,8 @@ import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.tasks.Task;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TaskTransportChannel;
+import org.elasticsearch.transport.TcpTransportChannel;
 import org.elasticsearch.transport.TransportChannel;
 import org.elasticsearch.transport.TransportRequest;
 import org.elasticsearch.transport.TransportRequestHandler;
@@ -45,7 +47,6 @@ import com.floragunn.searchguard.ssl.transport.PrincipalExtractor;
 import com.floragunn.searchguard.ssl.transport.SearchGuardSSLRequestHandler;
 import com.floragunn.searchguard.ssl.util.ExceptionUtils;
 import com.floragunn.searchguard.ssl.util.SSLRequestHelper;
-import com.floragunn.searchguard.support.Base64Helper;
 import com.floragunn.searchguard.support.ConfigConstants;
 import com.floragunn.searchguard.support.HeaderHelper;
 import com.floragunn.searchguard.user.User;
@@ -58,6 +59,7 @@ public class SearchGuardRequestHandler<T extends TransportRequest> extends Searc
     private final AuditLog auditLog;
     private final InterClusterRequestEvaluator requestEvalProvider;
     private final ClusterService cs;
+    private final DeserializedHeaderCache headerCache;
     
     SearchGuardRequestHandler(String action, 
             final TransportRequestHandler<T> actualHandler, 
@@ -67,12 +69,14 @@ public class SearchGuardRequestHandler<T extends TransportRequest> extends Searc
             final PrincipalExtractor principalExtractor,
             final InterClusterRequestEvaluator requestEvalProvider,
             final ClusterService cs,
-            final SslExceptionHandler sslExceptionHandler) {
+            final SslExceptionHandler sslExceptionHandler,
+            final DeserializedHeaderCache headerCache) {
         super(action, actualHandler, threadPool, principalExtractor, sslExceptionHandler);
         this.backendRegistry = backendRegistry;
         this.auditLog = auditLog;
         this.requestEvalProvider = requestEvalProvider;
         this.cs = cs;
+        this.headerCache = headerCache;
     }
     
     @Override
@@ -105,13 +109,13 @@ public class SearchGuardRequestHandler<T extends TransportRequest> extends Searc
                 final String userHeader = getThreadContext().getHeader(ConfigConstants.SG_USER_HEADER);
                 
                 if(!Strings.isNullOrEmpty(userHeader)) {
-                    getThreadContext().putTransient(ConfigConstants.SG_USER, Objects.requireNonNull((User) Base64Helper.deserializeObject(userHeader)));  
+                    getThreadContext().putTransient(ConfigConstants.SG_USER, Objects.requireNonNull((User) headerCache.deserialize(userHeader)));  
                 }
                 
                 final String originalRemoteAddress = getThreadContext().getHeader(ConfigConstants.SG_REMOTE_ADDRESS_HEADER);          
                 
                 if(!Strings.isNullOrEmpty(originalRemoteAddress)) {
-                    getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, new TransportAddress((InetSocketAddress) Base64Helper.deserializeObject(originalRemoteAddress)));
+                    getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, new TransportAddress((InetSocketAddress) headerCache.deserialize(originalRemoteAddress)));
                 }
                        
                 if(actionTrace.isTraceEnabled()) {
@@ -163,13 +167,13 @@ public class SearchGuardRequestHandler<T extends TransportRequest> extends Searc
                         //user can be null when a node client wants connect
                         //getThreadContext().putTransient(ConfigConstants.SG_USER, User.SG_INTERNAL);               
                     } else {
-                        getThreadContext().putTransient(ConfigConstants.SG_USER, Objects.requireNonNull((User) Base64Helper.deserializeObject(userHeader)));
+                        getThreadContext().putTransient(ConfigConstants.SG_USER, Objects.requireNonNull((User) headerCache.deserialize(userHeader)));
                     }
                     
                     String originalRemoteAddress = getThreadContext().getHeader(ConfigConstants.SG_REMOTE_ADDRESS_HEADER);
                     
                     if(!Strings.isNullOrEmpty(originalRemoteAddress)) {
-                        getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, new TransportAddress((InetSocketAddress) Base64Helper.deserializeObject(originalRemoteAddress)));
+                        getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, new TransportAddress((InetSocketAddress) headerCache.deserialize(originalRemoteAddress)));
                     } else {
                         getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, (TransportAddress)request.remoteAddress());
                     }
@@ -187,45 +191,8 @@ public class SearchGuardRequestHandler<T extends TransportRequest> extends Searc
                         return;
                     }
                     
-                    //TODO SG6 exception handling, introduce authexception
-                    
-                    User user;
-                    //try {
-                        if((user = backendRegistry.authenticate(request, principal, task, task.getAction())) == null) {
-                            
-                            if(task.getAction().equals(WhoAmIAction.NAME)) {
-                                super.messageReceivedDecorate(request, handler, transportChannel, task);
-                                return;
-                            }
-                            
-                            if(task.getAction().equals("cluster:monitor/nodes/liveness")
-                                    || task.getAction().equals("internal:transport/handshake")) {
-                                super.messageReceivedDecorate(request, handler, transportChannel, task);
-                                return;
-                            }
-                            
-                            
-                            log.error("Cannot authenticate {} for {}", (User) getThreadContext().getTransient(ConfigConstants.SG_USER), task.getAction());
-                            transportChannel.sendResponse(new ElasticsearchSecurityException("Cannot authenticate "+getThreadContext().getTransient(ConfigConstants.SG_USER)));
-                            return;
-                        }
-                    //} catch (Exception e) {
-                        //    log.error("Error authentication transport user "+e, e);
-                        //auditLog.logFailedLogin(principal, false, null, request);
-                        //transportChannel.sendResponse(ExceptionsHelper.convertToElastic(e));
-                        //return;
-                        //}
-                    
-                    getThreadContext().putTransient(ConfigConstants.SG_USER, user);
-                    TransportAddress originalRemoteAddress = request.remoteAddress();
-                    
-                    if(originalRemoteAddress != null && (originalRemoteAddress instanceof TransportAddress)) {
-                        getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, originalRemoteAddress);
-                    } else {
-                        log.error("Request has no proper remote address {}", originalRemoteAddress);
-                        transportChannel.sendResponse(new ElasticsearchException("Request has no proper remote address"));
-                        return;
-                    }
+                    authenticateAndHandle(request, handler, transportChannel, task, principal);
+                    return;
                 }
                 
                 if(actionTrace.isTraceEnabled()) {
@@ -245,6 +212,71 @@ public class SearchGuardRequestHandler<T extends TransportRequest> extends Searc
             } 
         }
     }
+
+    /**
+     * Authenticate a request sent by a transport client and pass it to the actual handler
+     */
+    private void authenticateAndHandle(final T request, final TransportRequestHandler<T> handler,
+            final TransportChannel transportChannel, final Task task, final String principal) throws Exception {
+        
+        //TODO SG6 exception handling, introduce authexception
+        
+        final User user;
+        
+        if((user = backendRegistry.authenticate(request, principal, task, task.getAction(), getConnection(transportChannel))) == null) {
+            
+            if(task.getAction().equals(WhoAmIAction.NAME)) {
+                super.messageReceivedDecorate(request, handler, transportChannel, task);
+                return;
+            }
+            
+            if(task.getAction().equals("cluster:monitor/nodes/liveness")
+                    || task.getAction().equals("internal:transport/handshake")) {
+                super.messageReceivedDecorate(request, handler, transportChannel, task);
+                return;
+            }
+            
+            log.error("Cannot authenticate {} for {}", (User) getThreadContext().getTransient(ConfigConstants.SG_USER), task.getAction());
+            transportChannel.sendResponse(new ElasticsearchSecurityException("Cannot authenticate "+getThreadContext().getTransient(ConfigConstants.SG_USER)));
+            return;
+        }
+        
+        getThreadContext().putTransient(ConfigConstants.SG_USER, user);
+        backendRegistry.attachEffectivePermissions(user);
+        TransportAddress originalRemoteAddress = request.remoteAddress();
+        
+        if(originalRemoteAddress != null && (originalRemoteAddress instanceof TransportAddress)) {
+            getThreadContext().putTransient(ConfigConstants.SG_REMOTE_ADDRESS, originalRemoteAddress);
+        } else {
+            log.error("Request has no proper remote address {}", originalRemoteAddress);
+            transportChannel.sendResponse(new ElasticsearchException("Request has no proper remote address"));
+            return;
+        }
+        
+        if(actionTrace.isTraceEnabled()) {
+            getThreadContext().putHeader("_sg_trace"+System.currentTimeMillis()+"#"+UUID.randomUUID().toString(), Thread.currentThread().getName()+" NETTI -> "+transportChannel.getChannelType()+" "+getThreadContext().getHeaders().entrySet().stream().filter(p->!p.getKey().startsWith("_sg_trace")).collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue())));
+        }
+        
+        super.messageReceivedDecorate(request, handler, transportChannel, task);
+    }
+    
+    /**
+     * @return the low level connection of a netty transport channel, null if it can not be determined
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object getConnection(final TransportChannel transportChannel) {
+        TransportChannel channel = transportChannel;
+        
+        if(channel instanceof TaskTransportChannel) {
+            channel = ((TaskTransportChannel) channel).getChannel();
+        }
+        
+        if(channel instanceof TcpTransportChannel) {
+            return ((TcpTransportChannel) channel).getChannel();
+        }
+        
+        return null;
+    }
    
     @Override
     protected void addAdditionalContextValues(final String action, final TransportRequest request, final X509Certificate[] localCerts, final X509Certificate[] peerCerts, final String principal)
@@ -17,8 +17,7 @@
 
 package com.floragunn.searchguard.user;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,7 +25,8 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import org.elasticsearch.ElasticsearchSecurityException;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 /**
  * AuthCredentials are an abstraction to encapsulate credentials like passwords or generic 
@@ -35,13 +35,16 @@ import org.elasticsearch.ElasticsearchSecurityException;
  */
 public final class AuthCredentials {
 
-    private static final String DIGEST_ALGORITHM = "SHA-256";
+    //keyed with a per node random key, so fingerprints can not be precomputed and are never comparable across nodes
+    private static final HashFunction[] FINGERPRINT_FUNCTIONS = newFingerprintFunctions();
     private final String username;
     private byte[] password;
     private Object nativeCredentials;
     private final Set<String> backendRoles = new HashSet<String>();
     private boolean complete;
-    private final byte[] internalPasswordHash;
+    private final boolean hasPasswordFingerprint;
+    private final long passwordFingerprint0;
+    private final long passwordFingerprint1;
     private final Map<String, String> attributes = new HashMap<>();
 
     /**
@@ -97,14 +100,14 @@ public final class AuthCredentials {
         this.password = password == null ? null : Arrays.copyOf(password, password.length);
         
         if(this.password != null) {
-            try {
-                MessageDigest digester = MessageDigest.getInstance(DIGEST_ALGORITHM);
-                internalPasswordHash = digester.digest(this.password);
-            } catch (NoSuchAlgorithmException e) {
-                throw new ElasticsearchSecurityException("Unable to digest password", e);
-            }
+            //128 bit SipHash fingerprint, much cheaper than a message digest and only used for equality
+            hasPasswordFingerprint = true;
+            passwordFingerprint0 = FINGERPRINT_FUNCTIONS[0].hashBytes(this.password).asLong();
+            passwordFingerprint1 = FINGERPRINT_FUNCTIONS[1].hashBytes(this.password).asLong();
         } else {
-            internalPasswordHash = null;
+            hasPasswordFingerprint = false;
+            passwordFingerprint0 = 0;
+            passwordFingerprint1 = 0;
         }
         
         if(password != null) {
@@ -153,7 +156,7 @@ public final class AuthCredentials {
     public int hashCode() {        
         final int prime = 31;
         int result = 1;
-        result = prime * result + Arrays.hashCode(internalPasswordHash);
+        result = prime * result + (hasPasswordFingerprint ? Long.hashCode(passwordFingerprint0) : 0);
         result = prime * result + ((username == null) ? 0 : username.hashCode());
         return result;
     }
@@ -167,7 +170,9 @@ public final class AuthCredentials {
         if (getClass() != obj.getClass())
             return false;
         AuthCredentials other = (AuthCredentials) obj;
-        if (!Arrays.equals(internalPasswordHash, other.internalPasswordHash))
+        if (hasPasswordFingerprint != other.hasPasswordFingerprint 
+                || passwordFingerprint0 != other.passwordFingerprint0 
+                || passwordFingerprint1 != other.passwordFingerprint1)
             return false;
         if (username == null) {
             if (other.username != null)
@@ -217,4 +222,10 @@ public final class AuthCredentials {
     public Map<String, String> getAttributes() {
         return Collections.unmodifiableMap(this.attributes);
     }
+    
+    private static HashFunction[] newFingerprintFunctions() {
+        final SecureRandom random = new SecureRandom();
+        return new HashFunction[] { Hashing.sipHash24(random.nextLong(), random.nextLong()), 
+                Hashing.sipHash24(random.nextLong(), random.nextLong()) };
+    }
 }
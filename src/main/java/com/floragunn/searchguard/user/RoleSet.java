@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.user;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Immutable, interned set of backend roles with a precomputed hash code.
+ * <p/>
+ * Many users share exactly the same backend roles, so all equal role sets are represented by one instance
+ * which is kept as long as a user references it. Serialized as a plain {@link HashSet}, so the serialized
+ * form of a {@link User} does not change.
+ */
+public final class RoleSet extends AbstractSet<String> implements Serializable {
+
+    private static final long serialVersionUID = 2353628430185634371L;
+    private static final Interner<RoleSet> INTERNER = Interners.newWeakInterner();
+
+    public static final RoleSet EMPTY = INTERNER.intern(new RoleSet(Collections.<String>emptySet()));
+
+    private final Set<String> roles;
+    private final int hashCode;
+
+    private RoleSet(final Set<String> roles) {
+        this.roles = roles;
+        this.hashCode = roles.hashCode();
+    }
+
+    /**
+     * @return the shared instance which contains exactly the given roles
+     */
+    public static RoleSet of(final Collection<String> roles) {
+        if (roles == null || roles.isEmpty()) {
+            return EMPTY;
+        }
+
+        if (roles instanceof RoleSet) {
+            return (RoleSet) roles;
+        }
+
+        return INTERNER.intern(new RoleSet(Collections.unmodifiableSet(new HashSet<String>(roles))));
+    }
+
+    /**
+     * @return the shared instance which contains the roles of this set and the given roles
+     */
+    public RoleSet with(final Collection<String> additionalRoles) {
+        if (additionalRoles == null || roles.containsAll(additionalRoles)) {
+            return this;
+        }
+
+        final Set<String> union = new HashSet<String>(roles.size() + additionalRoles.size());
+        union.addAll(roles);
+        union.addAll(additionalRoles);
+        return INTERNER.intern(new RoleSet(Collections.unmodifiableSet(union)));
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return roles.iterator();
+    }
+
+    @Override
+    public int size() {
+        return roles.size();
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return roles.contains(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+
+        if (o instanceof RoleSet && ((RoleSet) o).hashCode != hashCode) {
+            return false;
+        }
+
+        return super.equals(o);
+    }
+
+    private Object writeReplace() {
+        return new HashSet<String>(roles);
+    }
+}
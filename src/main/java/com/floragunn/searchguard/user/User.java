@@ -18,12 +18,12 @@
 package com.floragunn.searchguard.user;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -45,14 +45,17 @@ public class User implements Serializable, Writeable, CustomAttributesAware {
     
     private static final long serialVersionUID = -5500938501822658596L;
     private final String name;
-    private final Set<String> roles = new HashSet<String>();
+    //a RoleSet shared with all users which have the same roles, replaced (not modified) when roles are added
+    //declared as Set to keep the serialized form compatible with other nodes
+    //volatile because cached users are read by other threads without locking while roles are added
+    private volatile Set<String> roles = RoleSet.EMPTY;
     private String requestedTenant;
     private Map<String, String> attributes = new HashMap<>();
 
     public User(final StreamInput in) throws IOException {
         super();
         name = in.readString();
-        roles.addAll(in.readList(StreamInput::readString));
+        roles = RoleSet.of(in.readList(StreamInput::readString));
         requestedTenant = in.readString();
         attributes = in.readMap(StreamInput::readString, StreamInput::readString);
     }
@@ -103,7 +106,7 @@ public class User implements Serializable, Writeable, CustomAttributesAware {
      * @return A unmodifiable set of the roles this user is a member of
      */
     public final Set<String> getRoles() {
-        return Collections.unmodifiableSet(roles);
+        return roles;
     }
 
     /**
@@ -111,8 +114,8 @@ public class User implements Serializable, Writeable, CustomAttributesAware {
      * 
      * @param role The role
      */
-    public final void addRole(final String role) {
-        this.roles.add(role);
+    public synchronized final void addRole(final String role) {
+        this.roles = RoleSet.of(this.roles).with(Collections.singleton(role));
     }
 
     /**
@@ -120,9 +123,9 @@ public class User implements Serializable, Writeable, CustomAttributesAware {
      * 
      * @param roles The roles
      */
-    public final void addRoles(final Collection<String> roles) {
+    public synchronized final void addRoles(final Collection<String> roles) {
         if(roles != null) {
-            this.roles.addAll(roles);
+            this.roles = RoleSet.of(this.roles).with(roles);
         }
     }
 
@@ -202,6 +205,11 @@ public class User implements Serializable, Writeable, CustomAttributesAware {
         out.writeMap(attributes, StreamOutput::writeString, StreamOutput::writeString);
     }
 
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        roles = RoleSet.of(roles);
+    }
+
     /**
      * Get the custom attributes associated with this user
      * 
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.test.helper.benchmark.Benchmark;
+import com.floragunn.searchguard.user.AuthCredentials;
+
+public class AuthCredentialsTests {
+
+    private static final int ITERATIONS = 1000000;
+
+    @Test
+    public void testEquality() throws Exception {
+        final AuthCredentials credentials = new AuthCredentials("nagilum", "nagilum".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(credentials, new AuthCredentials("nagilum", "nagilum".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(credentials.hashCode(), new AuthCredentials("nagilum", "nagilum".getBytes(StandardCharsets.UTF_8)).hashCode());
+        Assert.assertNotEquals(credentials, new AuthCredentials("nagilum", "wrong".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotEquals(credentials, new AuthCredentials("worf", "nagilum".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotEquals(credentials, new AuthCredentials("nagilum"));
+    }
+
+    @Test
+    public void testFingerprintBenchmark() throws Exception {
+        Benchmark.assumeEnabled();
+
+        final byte[] password = "a-typical-password-1234".getBytes(StandardCharsets.UTF_8);
+
+        //what the constructor did before: a MessageDigest per instance and a SHA-256 digest of the password copy
+        final double sha256 = Benchmark.nanosPerOperation(ITERATIONS, () -> {
+            final byte[] copy = Arrays.copyOf(password, password.length);
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(copy);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            } finally {
+                Arrays.fill(copy, (byte) 0);
+            }
+        });
+
+        //the constructor now: the password copy and two keyed SipHash-2-4 values
+        final double sipHash = Benchmark.nanosPerOperation(ITERATIONS, () -> new AuthCredentials("nagilum", Arrays.copyOf(password, password.length)));
+
+        Benchmark.report("credentials fingerprint", String.format("SHA-256: %.1f ns, SipHash (whole AuthCredentials): %.1f ns", sha256, sipHash));
+        Assert.assertTrue(sipHash < sha256);
+    }
+}
@@ -46,6 +46,9 @@ public class HealthTests extends SingleClusterTest {
         assertContains(res, "*UP*");
         assertContains(res, "*strict*");
         assertNotContains(res, "*DOWN*");
+        //only the aggregate, the auth domains are not revealed without authentication
+        assertContains(res, "*\"auth_domains_status\" : \"UP\"*");
+        assertNotContains(res, "*CLOSED*");
     }
     
     @Test
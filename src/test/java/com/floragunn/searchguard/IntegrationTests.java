@@ -25,6 +25,7 @@ import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TreeSet;
 
 import org.apache.commons.io.FileUtils;
@@ -57,6 +58,7 @@ import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.common.util.concurrent.ThreadContext.StoredContext;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.indices.InvalidIndexNameException;
@@ -658,9 +660,102 @@ public class IntegrationTests extends SingleClusterTest {
         Assert.assertTrue(resc.getBody(), resc.getBody().contains("\"_index\":\"klingonempire\""));
         Assert.assertTrue(resc.getBody(), resc.getBody().contains("hits"));
         Assert.assertTrue(resc.getBody(), resc.getBody().contains("no permissions for [indices:data/read/search]"));
+        //the forbidden search fails as its own item, the permitted ones are still executed
+        Assert.assertFalse(resc.getBody(), resc.getBody().contains("\"_index\":\"starfleet\""));
         
     }
     
+    @Test
+    public void testStats() throws Exception {
+    
+        setup(Settings.EMPTY, new DynamicSgConfig(), Settings.EMPTY, true);
+        final RestHelper rh = nonSslRestHelper();
+        
+        Assert.assertEquals(HttpStatus.SC_OK, rh.executeGetRequest("_searchguard/authinfo", encodeBasicHeader("nagilum", "nagilum")).getStatusCode());
+        Assert.assertEquals(HttpStatus.SC_OK, rh.executeGetRequest("_searchguard/authinfo", encodeBasicHeader("nagilum", "nagilum")).getStatusCode());
+        
+        HttpResponse res = rh.executeGetRequest("_searchguard/stats?pretty", encodeBasicHeader("nagilum", "nagilum"));
+        System.out.println(res.getBody());
+        Assert.assertEquals(HttpStatus.SC_OK, res.getStatusCode());
+        Map<String, Object> caches = stats(res, "caches");
+        Assert.assertTrue(res.getBody(), caches.containsKey("rest_impersonation_cache"));
+        Assert.assertEquals(res.getBody(), 2, ((Number) ((Map<?, ?>) caches.get("user_cache")).get("hit_count")).intValue());
+        
+        Assert.assertEquals(HttpStatus.SC_UNAUTHORIZED, rh.executeGetRequest("_searchguard/stats").getStatusCode());
+        //worf is not mapped to sg_all_access
+        Assert.assertEquals(HttpStatus.SC_FORBIDDEN, rh.executeGetRequest("_searchguard/stats", encodeBasicHeader("worf", "worf")).getStatusCode());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> stats(final HttpResponse res, final String section) {
+        final Map<String, Object> body = XContentHelper.convertToMap(XContentType.JSON.xContent(), res.getBody(), true);
+        return (Map<String, Object>) ((Map<String, Object>) body.get("stats")).get(section);
+    }
+
+    @Test
+    public void testAuthzPeerLookup() throws Exception {
+
+        final Settings settings = Settings.builder()
+                .put(ConfigConstants.SEARCHGUARD_CACHE_AUTHZ_PEER_LOOKUP_ENABLED, true)
+                .build();
+        setup(Settings.EMPTY, new DynamicSgConfig().setSgConfig("sg_config_authz_noop.yml"), settings, true);
+        final RestHelper rh = nonSslRestHelper();
+
+        //the first node has to ask the authorizers
+        Assert.assertEquals(HttpStatus.SC_OK, rh.executeGetRequest("_searchguard/authinfo", encodeBasicHeader("nagilum", "nagilum")).getStatusCode());
+
+        TransportAddress otherNode = null;
+        for (TransportAddress address: clusterInfo.httpAdresses) {
+            if(address.getPort() != clusterInfo.httpPort) {
+                otherNode = address;
+            }
+        }
+        Assert.assertNotNull(otherNode);
+
+        //another node gets the roles from the first one
+        final String otherNodeUri = "http://"+otherNode.getAddress()+":"+otherNode.getPort()+"/";
+        Assert.assertEquals(HttpStatus.SC_OK, rh.executeRequest(new HttpGet(otherNodeUri+"_searchguard/authinfo"), encodeBasicHeader("nagilum", "nagilum")).getStatusCode());
+
+        HttpResponse res = rh.executeRequest(new HttpGet(otherNodeUri+"_searchguard/stats"), encodeBasicHeader("nagilum", "nagilum"));
+        Assert.assertEquals(HttpStatus.SC_OK, res.getStatusCode());
+        Map<String, Object> peerLookup = stats(res, "authz_peer_lookup");
+        Assert.assertEquals(res.getBody(), true, peerLookup.get("enabled"));
+        Assert.assertEquals(res.getBody(), 1, ((Number) peerLookup.get("hit_count")).intValue());
+        Assert.assertEquals(res.getBody(), 0, ((Number) peerLookup.get("miss_count")).intValue());
+
+        res = rh.executeGetRequest("_searchguard/stats", encodeBasicHeader("nagilum", "nagilum"));
+        Assert.assertEquals(HttpStatus.SC_OK, res.getStatusCode());
+        peerLookup = stats(res, "authz_peer_lookup");
+        Assert.assertEquals(res.getBody(), 0, ((Number) peerLookup.get("hit_count")).intValue());
+        Assert.assertEquals(res.getBody(), 1, ((Number) peerLookup.get("miss_count")).intValue());
+        Assert.assertEquals(res.getBody(), 0, ((Number) peerLookup.get("failure_count")).intValue());
+        Assert.assertEquals(res.getBody(), 1, ((Number) peerLookup.get("served_count")).intValue());
+    }
+
+    @Test
+    public void testAuthenticationRateLimit() throws Exception {
+
+        final Settings settings = Settings.builder()
+                .put(ConfigConstants.SEARCHGUARD_AUTH_RATE_LIMIT_USERNAME_PREFIX+".allowed_tries", 3)
+                .putList(ConfigConstants.SEARCHGUARD_STATS_ROLES_ENABLED, "sg_all_access", "sg_user1")
+                .build();
+        setup(Settings.EMPTY, new DynamicSgConfig(), settings, true);
+        final RestHelper rh = nonSslRestHelper();
+
+        for(int i=0; i<3; i++) {
+            Assert.assertEquals(HttpStatus.SC_UNAUTHORIZED, rh.executeGetRequest("_searchguard/authinfo", encodeBasicHeader("nagilum", "wrong"+i)).getStatusCode());
+        }
+
+        //blocked even with the right password from the same address, other addresses could still log in as nagilum
+        Assert.assertEquals(429, rh.executeGetRequest("_searchguard/authinfo", encodeBasicHeader("nagilum", "nagilum")).getStatusCode());
+        //other users are not affected
+        Assert.assertEquals(HttpStatus.SC_OK, rh.executeGetRequest("_searchguard/authinfo", encodeBasicHeader("worf", "worf")).getStatusCode());
+
+        HttpResponse res = rh.executeGetRequest("_searchguard/stats?pretty", encodeBasicHeader("worf", "worf"));
+        Assert.assertEquals(HttpStatus.SC_OK, res.getStatusCode());
+        Assert.assertEquals(res.getBody(), 1, ((Number) ((Map<?, ?>) stats(res, "rate_limits").get("username")).get("blocked_count")).intValue());
+    }
+
     @Test
     public void testWhoAmI() throws Exception {
         setup(Settings.EMPTY, new DynamicSgConfig().setSgInternalUsers("sg_internal_empty.yml")
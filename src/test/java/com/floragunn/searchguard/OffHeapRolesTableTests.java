@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard;
+
+import java.util.Arrays;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.configuration.OffHeapRolesTable;
+import com.floragunn.searchguard.test.helper.benchmark.Benchmark;
+
+public class OffHeapRolesTableTests {
+
+    private static final int ROLES = 50000;
+
+    @Test
+    public void testLookup() throws Exception {
+        final Settings roles = createRoles(100);
+        final OffHeapRolesTable table = OffHeapRolesTable.compile(roles);
+
+        Assert.assertEquals(100, table.getRoleCount());
+        Assert.assertTrue(table.containsRole("customer_42"));
+        Assert.assertFalse(table.containsRole("customer_100"));
+        Assert.assertFalse(table.containsRole("customer"));
+        Assert.assertTrue(table.getRoleSettings("customer_100").names().isEmpty());
+        Assert.assertTrue(table.isCompiledFrom(roles));
+        Assert.assertFalse(table.isCompiledFrom(createRoles(100)));
+
+        for(int i=0; i<100; i++) {
+            final Settings expected = roles.getByPrefix("customer_"+i+".");
+            final Settings actual = table.getRoleSettings("customer_"+i);
+            Assert.assertEquals(expected.getAsList("cluster"), actual.getAsList(".cluster"));
+            Assert.assertEquals(expected.getGroups("indices").keySet(), actual.getGroups(".indices").keySet());
+            Assert.assertEquals(expected.getAsList("indices.customer_"+i+"-*.*"), actual.getAsList(".indices.customer_"+i+"-*.*"));
+            Assert.assertEquals(expected.get("indices.customer_"+i+"-*._dls_"), actual.get(".indices.customer_"+i+"-*._dls_"));
+            Assert.assertEquals(expected.getAsList("indices.customer_"+i+"-*._fls_"), actual.getAsList(".indices.customer_"+i+"-*._fls_"));
+            Assert.assertEquals(expected.get("tenants.customer_"+i), actual.get(".tenants.customer_"+i));
+        }
+    }
+
+    @Test
+    public void testDottedRoleNames() throws Exception {
+        final Settings roles = Settings.builder()
+                .putList("team.ops.cluster", Arrays.asList("CLUSTER_MONITOR"))
+                .putList("team.ops.indices.logs-*.*", Arrays.asList("READ"))
+                .put("team.ops.tenants.ops", "RW")
+                .putList("team.cluster", Arrays.asList("CLUSTER_ALL"))
+                .build();
+        final OffHeapRolesTable table = OffHeapRolesTable.compile(roles);
+
+        Assert.assertEquals(2, table.getRoleCount());
+        Assert.assertTrue(table.containsRole("team.ops"));
+        Assert.assertTrue(table.containsRole("team"));
+        Assert.assertFalse(table.containsRole("ops"));
+        Assert.assertEquals(Arrays.asList("CLUSTER_MONITOR"), table.getRoleSettings("team.ops").getAsList(".cluster"));
+        Assert.assertEquals(Arrays.asList("READ"), table.getRoleSettings("team.ops").getAsList(".indices.logs-*.*"));
+        Assert.assertEquals("RW", table.getRoleSettings("team.ops").get(".tenants.ops"));
+        Assert.assertEquals(Arrays.asList("CLUSTER_ALL"), table.getRoleSettings("team").getAsList(".cluster"));
+        Assert.assertEquals(1, table.getRoleSettings("team").names().size());
+    }
+
+    @Test
+    public void testManyRoles() throws Exception {
+        final OffHeapRolesTable table = OffHeapRolesTable.compile(createRoles(ROLES));
+
+        Assert.assertEquals(ROLES, table.getRoleCount());
+        Assert.assertTrue(table.containsRole("customer_"+(ROLES-1)));
+        Assert.assertFalse(table.containsRole("customer_"+ROLES));
+        Assert.assertTrue(table.getOffHeapBytes() > 0);
+    }
+
+    @Test
+    public void testMemoryBenchmark() throws Exception {
+        Benchmark.assumeEnabled();
+
+        final long settingsHeap = Benchmark.retainedHeap(() -> createRoles(ROLES));
+        final OffHeapRolesTable[] table = new OffHeapRolesTable[1];
+        final long tableHeap = Benchmark.retainedHeap(() -> table[0] = OffHeapRolesTable.compile(createRoles(ROLES)));
+
+        Benchmark.report("roles heap", ROLES+" roles as settings: "+(settingsHeap / 1024)+" kb, as off-heap table: "
+                +(tableHeap / 1024)+" kb heap and "+(table[0].getOffHeapBytes() / 1024)+" kb off-heap");
+        Assert.assertTrue(tableHeap < settingsHeap);
+    }
+
+    private static Settings createRoles(int count) {
+        final Settings.Builder builder = Settings.builder();
+        for(int i=0; i<count; i++) {
+            final String role = "customer_"+i;
+            builder.putList(role+".cluster", Arrays.asList("CLUSTER_COMPOSITE_OPS_RO", "indices:data/read/scroll*"));
+            builder.putList(role+".indices.customer_"+i+"-*.*", Arrays.asList("READ", "indices:admin/mappings/fields/get*"));
+            builder.put(role+".indices.customer_"+i+"-*._dls_", "{\"bool\": {\"must\": {\"match\": {\"customer\": \""+i+"\"}}}}");
+            builder.putList(role+".indices.customer_"+i+"-*._fls_", Arrays.asList("~secret", "~internal"));
+            builder.putList(role+".indices.shared.*", Arrays.asList("READ"));
+            builder.put(role+".tenants.customer_"+i, "RW");
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.support.Base64Helper;
+import com.floragunn.searchguard.test.helper.benchmark.Benchmark;
+import com.floragunn.searchguard.user.RoleSet;
+import com.floragunn.searchguard.user.User;
+
+public class RoleSetTests {
+
+    private static final int USERS = 1000;
+    private static final int BENCHMARK_USERS = 100000;
+
+    @Test
+    public void testInterning() throws Exception {
+        final User user1 = new User("user1", Arrays.asList("a", "b"), null);
+        final User user2 = new User("user2", Arrays.asList("b"), null);
+        user2.addRole("a");
+
+        Assert.assertSame(user1.getRoles(), user2.getRoles());
+        Assert.assertSame(user1.getRoles(), user1.getRoles());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b")), user1.getRoles());
+        Assert.assertEquals(user1.getRoles(), new HashSet<String>(Arrays.asList("a", "b")));
+        Assert.assertTrue(user2.isUserInRole("a"));
+
+        user2.addRoles(Arrays.asList("c"));
+        Assert.assertNotSame(user1.getRoles(), user2.getRoles());
+        Assert.assertEquals(2, user1.getRoles().size());
+        Assert.assertEquals(3, user2.getRoles().size());
+        Assert.assertSame(RoleSet.EMPTY, new User("user3").getRoles());
+
+        try {
+            user1.getRoles().add("c");
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final User user = new User("user1", Arrays.asList("a", "b"), null);
+
+        final User deserialized = (User) Base64Helper.deserializeObject(Base64Helper.serializeObject(user));
+        Assert.assertEquals(user.getRoles(), deserialized.getRoles());
+        Assert.assertSame(user.getRoles(), deserialized.getRoles());
+
+        //the role set is serialized like before, as a plain HashSet
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(user.getRoles());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(HashSet.class, in.readObject().getClass());
+        }
+
+        user.setRequestedTenant("tenant");
+        final BytesStreamOutput out = new BytesStreamOutput();
+        user.writeTo(out);
+        Assert.assertSame(user.getRoles(), new User(out.bytes().streamInput()).getRoles());
+    }
+
+    @Test
+    public void testSharedByCachedUsers() throws Exception {
+        final List<String> backendRoles = new ArrayList<String>();
+        for(int i=0; i<20; i++) {
+            backendRoles.add("cn=department_"+i+",ou=groups,dc=example,dc=com");
+        }
+
+        final List<User> users = new ArrayList<User>(USERS);
+        for(int i=0; i<USERS; i++) {
+            users.add(new User("user_"+i, new ArrayList<String>(backendRoles), null));
+        }
+
+        final Set<String> roles = users.get(0).getRoles();
+        for(final User user: users) {
+            Assert.assertSame(roles, user.getRoles());
+        }
+        Assert.assertEquals(new HashSet<String>(backendRoles), roles);
+    }
+
+    @Test
+    public void testMemoryBenchmark() throws Exception {
+        Benchmark.assumeEnabled();
+
+        //before: every cached user had its own HashSet with its own role strings (as read from the backend)
+        final long hashSetHeap = Benchmark.retainedHeap(() -> {
+            final List<Set<String>> roles = new ArrayList<Set<String>>(BENCHMARK_USERS);
+            for(int i=0; i<BENCHMARK_USERS; i++) {
+                roles.add(new HashSet<String>(backendRoles()));
+            }
+            return roles;
+        });
+
+        //after: users with the same roles share one interned role set
+        final long roleSetHeap = Benchmark.retainedHeap(() -> {
+            final List<Set<String>> roles = new ArrayList<Set<String>>(BENCHMARK_USERS);
+            for(int i=0; i<BENCHMARK_USERS; i++) {
+                roles.add(RoleSet.of(backendRoles()));
+            }
+            return roles;
+        });
+
+        Benchmark.report("roles of "+BENCHMARK_USERS+" users", "HashSet per user: "+hashSetHeap+" bytes, interned RoleSet: "+roleSetHeap+" bytes");
+        Assert.assertTrue(roleSetHeap < hashSetHeap);
+    }
+
+    //new string instances on every call, like roles read from LDAP or a JWT for each login
+    private static List<String> backendRoles() {
+        final List<String> backendRoles = new ArrayList<String>();
+        for(int i=0; i<20; i++) {
+            backendRoles.add("cn=department_"+i+",ou=groups,dc=example,dc=com");
+        }
+        return backendRoles;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.net.ConnectException;
+import java.util.concurrent.TimeoutException;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AuthDomainCircuitBreakerTests {
+
+    @Test
+    public void testBackendFault() throws Exception {
+        Assert.assertTrue(AuthDomainCircuitBreaker.isBackendFault(new ConnectException("connection refused")));
+        Assert.assertTrue(AuthDomainCircuitBreaker.isBackendFault(new RuntimeException(new TimeoutException())));
+        Assert.assertTrue(AuthDomainCircuitBreaker.isBackendFault(new ElasticsearchSecurityException("timeout", RestStatus.SERVICE_UNAVAILABLE)));
+        Assert.assertTrue(AuthDomainCircuitBreaker.isBackendFault(new ElasticsearchException(new ConnectException())));
+
+        //wrong credentials and errors which say nothing about the health of the backend
+        Assert.assertFalse(AuthDomainCircuitBreaker.isBackendFault(new ElasticsearchSecurityException("password does not match", RestStatus.UNAUTHORIZED)));
+        Assert.assertFalse(AuthDomainCircuitBreaker.isBackendFault(new NullPointerException()));
+        Assert.assertFalse(AuthDomainCircuitBreaker.isBackendFault(new IllegalArgumentException("invalid username")));
+    }
+}
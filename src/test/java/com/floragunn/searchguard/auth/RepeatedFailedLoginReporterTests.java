@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.elasticsearch.common.collect.Tuple;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.auditlog.NullAuditLog;
+import com.floragunn.searchguard.user.AuthCredentials;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+public class RepeatedFailedLoginReporterTests {
+
+    @Test
+    public void testRepeatedFailedLoginsAreAudited() throws Exception {
+        final List<String> logged = new ArrayList<String>();
+        final NullAuditLog auditLog = new NullAuditLog() {
+            @Override
+            public void logRepeatedFailedLogins(String effectiveUser, long count) {
+                logged.add(effectiveUser + ":" + count);
+            }
+        };
+
+        final Cache<Tuple<AuthDomain, AuthCredentials>, LongAdder> negativeCache = CacheBuilder.newBuilder()
+                .removalListener(new RepeatedFailedLoginReporter(auditLog))
+                .build();
+
+        final LongAdder repeated = new LongAdder();
+        negativeCache.put(new Tuple<AuthDomain, AuthCredentials>(null, new AuthCredentials("nagilum", "wrong".getBytes(StandardCharsets.UTF_8))), repeated);
+        repeated.add(3);
+        //a login which failed only once is already reported as failed login
+        negativeCache.put(new Tuple<AuthDomain, AuthCredentials>(null, new AuthCredentials("worf", "wrong".getBytes(StandardCharsets.UTF_8))), new LongAdder());
+
+        Assert.assertTrue(logged.isEmpty());
+        negativeCache.invalidateAll();
+        Assert.assertEquals(logged.toString(), 1, logged.size());
+        Assert.assertEquals("nagilum:3", logged.get(0));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.test.helper.benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+import org.junit.Assume;
+
+/**
+ * Simple heap and timing measurements for benchmark tests.
+ * <p/>
+ * They depend on the JVM (gc, jit) and the machine, so they only run if the system property
+ * {@code sg.benchmark} is set (e.g. {@code mvn test -Dsg.benchmark=true -Dtest=RoleSetTests}).
+ */
+public final class Benchmark {
+
+    private Benchmark() {
+    }
+
+    /**
+     * Skip the calling test unless benchmarks are enabled
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("benchmarks are only run with -Dsg.benchmark=true", Boolean.getBoolean("sg.benchmark"));
+    }
+
+    /**
+     * @return the heap in bytes which is retained by the object the factory creates
+     */
+    public static long retainedHeap(final Callable<?> factory) throws Exception {
+        final long baseline = usedHeap();
+        final Object retained = factory.call();
+        final long used = usedHeap() - baseline;
+
+        //keep the object reachable until the heap was measured
+        if (retained.hashCode() == System.identityHashCode(Benchmark.class)) {
+            System.out.print("");
+        }
+
+        return used;
+    }
+
+    /**
+     * @return the average time in nanoseconds of one call of the operation after a warm-up
+     */
+    public static double nanosPerOperation(final int iterations, final Supplier<Object> operation) {
+        long blackhole = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            blackhole += operation.get().hashCode();
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            blackhole += operation.get().hashCode();
+        }
+        final long nanos = System.nanoTime() - start;
+
+        if (blackhole == 42) {
+            System.out.print("");
+        }
+
+        return (double) nanos / iterations;
+    }
+
+    public static void report(final String benchmark, final String result) {
+        System.out.println("Benchmark " + benchmark + ": " + result);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}